@@ -41,19 +41,71 @@
 package org.jvnet.licensetool;
 
 import static org.jvnet.licensetool.Tags.COPYRIGHT_BLOCK_TAG;
+import static org.jvnet.licensetool.Tags.LICENSE_TAG_PREFIX;
 import static org.jvnet.licensetool.Tags.OWN_COPYRIGHT_TAG;
+import static org.jvnet.licensetool.Tags.TEMPLATE_TAG_PREFIX;
 
 import org.jvnet.licensetool.file.*;
+import org.jvnet.licensetool.generic.Pair;
 import org.jvnet.licensetool.util.CopyrightParser;
+import org.jvnet.licensetool.util.HeaderDiff;
+import org.jvnet.licensetool.util.HeaderTemplate;
+import org.jvnet.licensetool.util.TemplateMatcher;
 import org.jvnet.licensetool.util.ToolUtil;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.List;
 
 public class ActionFactory {
     private final String COPYRIGHT = "Copyright";
+    // differing spans shown for a header with incorrect text
+    private static final int MISMATCH_SPANS = 3;
+    // what getLicenseCounts() counts files with no known license under
+    public static final String UNKNOWN_LICENSE = "unknown";
+    private int filesInspected = 0;
+    private int filesChanged = 0;
+    private LicenseLibrary licenses = null;
+    // license id -> number of files whose header holds it
+    private final Map<String, Integer> licenseCounts = new TreeMap<String, Integer>();
+    // copyright text -> the text compiled, see fixCopyright()
+    private final Map<String, HeaderTemplate> headerTemplates = new HashMap<String, HeaderTemplate>();
+
+    /**
+     * Known licenses; the header comments of each file are tagged with the one
+     * they hold, and the files are counted by license, see getLicenseCounts().
+     */
+    public void setLicenseLibrary(LicenseLibrary licenses) {
+        this.licenses = licenses;
+    }
+
+    /**
+     * Number of files seen by the validate or modify action.
+     */
+    public int getFilesInspected() {
+        return filesInspected;
+    }
+
+    /**
+     * Number of files the modify action actually wrote.
+     */
+    public int getFilesChanged() {
+        return filesChanged;
+    }
+
+    /**
+     * Number of files seen by the validate or modify action by the license of
+     * their header, or UNKNOWN_LICENSE if it is none of the known ones.  Empty
+     * unless a license library was set.
+     */
+    public Map<String, Integer> getLicenseCounts() {
+        return licenseCounts;
+    }
 
     /**
      * returns an action that returns true.  If verbose is true, the action
@@ -90,9 +142,35 @@ public class ActionFactory {
         };
     }
 
-    public Scanner.Action getValidateCopyrightAction(final PlainBlock copyrightBlock, final PlainBlock copyrightTemplateBlock, final LicenseTool.Arguments args) {
-        trace("makeCopyrightBlockAction: copyrightText = " + copyrightBlock);
+    /**
+     * returns an action that hands the top comment of each file, if any, to
+     * clusters.
+     */
+    public Scanner.Action getDiscoverAction(final HeaderClusters clusters) {
+        return new Scanner.Action() {
+            public String toString() {
+                return "DiscoverAction";
+            }
 
+            // called on several threads at once, see Scanner; the clusters do the counting
+            public boolean evaluate(ParsedFile pfile) {
+                String header = null;
+                for (CommentBlock cb : pfile.getComments()) {
+                    if (cb.hasTag(CommentBlock.TOP_COMMENT_BLOCK)) {
+                        header = cb.comment();
+                        break;
+                    }
+                }
+                clusters.add(pfile.getPath(), header);
+                return true;
+            }
+        };
+    }
+
+    public Scanner.Action getValidateCopyrightAction(final PlainBlock copyrightBlock, final TemplateMatcher templates, final LicenseTool.Arguments args) {
+        trace("makeCopyrightBlockAction: copyrightText = " + copyrightBlock);
+        final List<String> ownLicensors = getOwnLicensors(args);
+        final boolean checkEmpty = args.options().contains("checkEmpty");
 
         return new Scanner.Action() {
             public String toString() {
@@ -100,38 +178,53 @@ public class ActionFactory {
             }
 
             // Generally always return true, because we want to see ALL validation errors.
+            // The blocks are tagged and checked in one walk; the checks only look at the
+            // block itself, so their errors are kept to follow the one for a missing header.
             public boolean evaluate(ParsedFile pfile) {
-                //tag blocks
-                boolean hadAnOldSunCopyright = tagBlocks(pfile, args);
-                if (!hadAnOldSunCopyright) {
-                    validationError(null, "No Sun/Oracle Copyright header in ", pfile.getPath());
-                }
+                filesInspected++;
+                boolean hadAnOldSunCopyright = false;
+                List<Pair<Block, String>> errors = new ArrayList<Pair<Block, String>>();
                 // There should be a Sun copyright block in the first block
                 int countSunCopyright = 0;
                 for (CommentBlock block : pfile.getComments()) {
+                    if (tagBlock(block, pfile, ownLicensors)) {
+                        hadAnOldSunCopyright = true;
+                    }
+                    String comment = block.comment();
                     if (block.hasTags(OWN_COPYRIGHT_TAG, COPYRIGHT_BLOCK_TAG)) {
                         countSunCopyright++;
                         if (countSunCopyright > 1) {
-                            validationError(block, "More than one Sun/Oracle Copyright Block", pfile.getPath());
+                            errors.add(new Pair<Block, String>(block, "More than one Sun/Oracle Copyright Block"));
                             continue;
                         }
                         if (block.hasTag(CommentBlock.TOP_COMMENT_BLOCK)) {
-                            //if (!(ToolUtil.areCommentsSimilar(copyrightBlock.contents(),block.comment()))) {
-                            if (!(ToolUtil.doesCopyrightMatch(copyrightTemplateBlock.contents(),block.comment()))) {
-                                // It should entirely match copyrightText
-                                validationError(block, "First block has incorrect copyright text", pfile.getPath());
+                            //if (!(ToolUtil.areCommentsSimilar(copyrightBlock.contents(),comment))) {
+                            int template = templates.match(comment);
+                            if (template < 0) {
+                                // It should entirely match copyrightText or one of the other templates
+                                errors.add(new Pair<Block, String>(block, "First block has incorrect copyright text"
+                                        + describeMismatch(templates, block, args)));
+                            } else {
+                                tagTemplate(block, templates, template, pfile);
                             }
                         } else {
-                            validationError(block, "Sun/Oracle Copyright Block is not the first comment block", pfile.getPath());
+                            errors.add(new Pair<Block, String>(block, "Sun/Oracle Copyright Block is not the first comment block"));
                         }
                     } else {
                         //if empty comment block, remove it.
-                        if(args.options().contains("checkEmpty") && isEmpty(block.comment())){
-                            validationError(block, "Empty comment block in", pfile.getPath());
+                        if (checkEmpty && isEmpty(comment)) {
+                            errors.add(new Pair<Block, String>(block, "Empty comment block in"));
                         }
 
                     }
                 }
+                countLicense(pfile);
+                if (!hadAnOldSunCopyright) {
+                    validationError(null, "No Sun/Oracle Copyright header in ", pfile);
+                }
+                for (Pair<Block, String> error : errors) {
+                    validationError(error.first(), error.second(), pfile);
+                }
                 return true;
             }
 
@@ -149,7 +242,7 @@ public class ActionFactory {
     // afterFirstBlock is true if the copyright needs to start after the first block in the
     // file.
 
-    public Scanner.Action getModifyCopyrightAction(final PlainBlock copyrightBlock, final PlainBlock copyrightTemplateBlock, final LicenseTool.Arguments args) {
+    public Scanner.Action getModifyCopyrightAction(final PlainBlock copyrightBlock, final TemplateMatcher templates, final LicenseTool.Arguments args) {
         trace("makeCopyrightBlockAction: copyrightText = " + copyrightBlock);
 
 
@@ -159,8 +252,10 @@ public class ActionFactory {
             }
 
             public boolean evaluate(ParsedFile pfile) {
+                filesInspected++;
                 //tag blocks
                 boolean hadAnOldSunCopyright = tagBlocks(pfile, args);
+                countLicense(pfile);
                 trace("Updating copyright/license header on file " + pfile.getPath());
                 int countSunCopyright = 0;
                 for (CommentBlock block : pfile.getComments()) {
@@ -173,16 +268,27 @@ public class ActionFactory {
                         }
                         if (block.hasTag(CommentBlock.TOP_COMMENT_BLOCK)) {
                             //if (!(ToolUtil.areCommentsSimilar(copyrightBlock.contents(), block.comment()))) {
-                            if (!(ToolUtil.doesCopyrightMatch(copyrightTemplateBlock.contents(), block.comment()))) {
+                            int template = templates.match(block.comment());
+                            if (template < 0) {
                                 // It should entirely match copyrightText
                                 trace("Replace: First block has incorrect copyright text " + pfile.getPath());
                                 pfile.remove(block);
                                 pfile.insertCommentBlock(fixCopyright(copyrightBlock.contents(), block.getCopyright(), args, getLastModifiedDate(args, pfile)));
+                            } else {
+                                tagTemplate(block, templates, template, pfile);
+                                String lastModified = getLastModifiedDate(args, pfile);
+                                if (isOutOfDate(block.getCopyright(), lastModified)) {
+                                    // Regenerating only changes the years, so the write
+                                    // can usually patch the digits in place.
+                                    trace("Update: Copyright years are out of date " + pfile.getPath());
+                                    pfile.remove(block);
+                                    pfile.insertCommentBlock(fixCopyright(templates.getText(template), block.getCopyright(), args, lastModified));
+                                }
                             }
                         } else {
                             trace("Move: Sun/Oracle Copyright Block is not the first comment block" + pfile.getPath());
                             pfile.remove(block);
-                            if (!(ToolUtil.doesCopyrightMatch(copyrightTemplateBlock.contents(), block.comment()))) {
+                            if (templates.match(block.comment()) < 0) {
                                 pfile.insertCommentBlock(fixCopyright(copyrightBlock.contents(), block.getCopyright(), args, getLastModifiedDate(args, pfile)));
                             } else {
                                 pfile.insertCommentBlock(block.comment());
@@ -203,7 +309,9 @@ public class ActionFactory {
                 }
 
                 try {
-                    pfile.write();
+                    if (pfile.write()) {
+                        filesChanged++;
+                    }
                 } catch (IOException exc) {
                     trace("Exception while processing file " + pfile.getPath() + ": " + exc);
                     exc.printStackTrace();
@@ -220,16 +328,35 @@ public class ActionFactory {
 
     private String getLastModifiedDate(LicenseTool.Arguments args, ParsedFile pfile) {
         String lastModified = null;
-        if (args != null && args.uselastmodified() && pfile.getVCS() != null) {
-            lastModified = pfile.getVCS().getLastModifiedYear(pfile.getPath());
+        if (args != null && args.uselastmodified()) {
+            lastModified = pfile.getLastModifiedYear();
         }
         return lastModified;
     }
 
+    // true if the file was changed after the last year in its copyright.
+    private boolean isOutOfDate(CommentBlock.Copyright copyright, String lastModified) {
+        if (copyright == null || lastModified == null) {
+            return false;
+        }
+        String lastYear = copyright.getEndYear();
+        if (lastYear == null || lastYear.equals("")) {
+            lastYear = copyright.getStartYear();
+        }
+        return lastYear != null && !lastYear.equals("") && lastModified.compareTo(lastYear) > 0;
+    }
+
     //TODO Use file last changed date
-    private String fixCopyright(String cr_text, CommentBlock.Copyright copyright, LicenseTool.Arguments args, String lastModified) {
-        StringBuilder sb = new StringBuilder();
+    private synchronized HeaderTemplate headerTemplate(String cr_text) {
+        HeaderTemplate template = headerTemplates.get(cr_text);
+        if (template == null) {
+            template = new HeaderTemplate(cr_text);
+            headerTemplates.put(cr_text, template);
+        }
+        return template;
+    }
 
+    private String fixCopyright(String cr_text, CommentBlock.Copyright copyright, LicenseTool.Arguments args, String lastModified) {
         String startYear = null;
         String endYear = null;
         //Use default start year, end year if there is no existing copyright
@@ -256,27 +383,7 @@ public class ActionFactory {
         if(startYear == null || startYear.equals("")) {
             //TODO throw validation exception
         }
-        for(String line: ToolUtil.splitToLines(cr_text)) {
-            if(line.contains("YYYY ")) {
-                String years = null;
-                if(endYear != null && !endYear.equals("") && endYear.compareTo(startYear) > 0) {
-                    years = startYear+"-"+endYear+" ";
-                } else {
-                    years = startYear+" ";
-                }
-
-                line = line.replace("YYYY ", years);
-            } else if(line.contains("YYYY, ")) {
-                String years = startYear+", ";
-                if(endYear != null && !endYear.equals("") && endYear.compareTo(startYear) > 0) {
-                    years = years+endYear+", ";
-                }
-                line = line.replace("YYYY, ", years);
-            }
-            sb.append(line);
-        }
-
-        return sb.toString();
+        return headerTemplate(cr_text).render(startYear, endYear);
     }
 
     //Just delete the original file and rewrite it to test if parsing and writing back works correctly.
@@ -298,6 +405,24 @@ public class ActionFactory {
 
     private boolean tagBlocks(ParsedFile pfile, LicenseTool.Arguments args) {
         boolean hadAnOldSunCopyright = false;
+        List<String> own_licensors = getOwnLicensors(args);
+        // Tag blocks
+        for (CommentBlock cb : pfile.getComments()) {
+            if (tagBlock(cb, pfile, own_licensors)) {
+                hadAnOldSunCopyright = true;
+            }
+        }
+
+        /*
+        trace("copyrightBlockAction: blocks in file " + pfile.getPath());
+        for (Block block : pfile.getFileBlocks()) {
+            traceBlock(block);
+        }
+        */
+        return hadAnOldSunCopyright;
+    }
+
+    private List<String> getOwnLicensors(LicenseTool.Arguments args) {
         String LICENSOR_KEYWORD = "licensor:";
         List<String> own_licensors = new ArrayList<String>();
         for(String option:args.options()) {
@@ -305,52 +430,127 @@ public class ActionFactory {
                 own_licensors.add(option.substring(LICENSOR_KEYWORD.length()));
             }
         }
-        // Tag blocks
-        for (CommentBlock cb : pfile.getComments()) {
-            CopyrightParser.parseCopyright(cb, pfile);
-            if(cb.hasTag(COPYRIGHT_BLOCK_TAG)) {
-                String cddl = cb.find("CDDL");
-                if (cddl != null) {
-                    cb.addTag("CDDL_TAG");
+        return own_licensors;
+    }
+
+    // returns true if cb holds a copyright of ours
+    private boolean tagBlock(CommentBlock cb, ParsedFile pfile, List<String> own_licensors) {
+        boolean ownCopyright = false;
+        CopyrightParser.parseCopyright(cb, pfile);
+        if (licenses != null && (cb.hasTag(COPYRIGHT_BLOCK_TAG) || cb.hasTag(CommentBlock.TOP_COMMENT_BLOCK))) {
+            tagLicense(cb, pfile);
+        }
+        if(cb.hasTag(COPYRIGHT_BLOCK_TAG)) {
+            String cddl = cb.find("CDDL");
+            if (cddl != null) {
+                cb.addTag("CDDL_TAG");
+            }
+            CommentBlock.Copyright cr = cb.getCopyright();
+            if (cr != null && cr.getLicensor() != null) {
+                if (cr.getLicensor().contains("Sun") ||cr.getLicensor().contains("Oracle") ) {
+                    cb.addTag(OWN_COPYRIGHT_TAG);
+                    ownCopyright = true;
                 }
-                CommentBlock.Copyright cr = cb.getCopyright();
-                if (cr != null && cr.getLicensor() != null) {
-                    if (cr.getLicensor().contains("Sun") ||cr.getLicensor().contains("Oracle") ) {
-                        cb.addTag(OWN_COPYRIGHT_TAG);
-                        hadAnOldSunCopyright = true;
-                    }
 
-                    for(String licensor: own_licensors) {
-                        if(cr.getLicensor().contains(licensor)) {
-                            cb.addTag(OWN_COPYRIGHT_TAG);
-                            hadAnOldSunCopyright = true;    
-                        }
+                for(String licensor: own_licensors) {
+                    if(cr.getLicensor().contains(licensor)) {
+                        cb.addTag(OWN_COPYRIGHT_TAG);
+                        ownCopyright = true;
                     }
-
                 }
+
             }
         }
+        return ownCopyright;
+    }
 
-        /*
-        trace("copyrightBlockAction: blocks in file " + pfile.getPath());
-        for (Block block : pfile.getFileBlocks()) {
-            traceBlock(block);
+    private void tagTemplate(CommentBlock cb, TemplateMatcher templates, int template, ParsedFile pfile) {
+        cb.addTag(TEMPLATE_TAG_PREFIX + templates.getName(template));
+        trace("Template " + templates.getName(template) + " in " + pfile.getPath());
+    }
+
+    private void tagLicense(CommentBlock cb, ParsedFile pfile) {
+        String id = licenses.classify(cb.comment());
+        if (id != null) {
+            cb.addTag(LICENSE_TAG_PREFIX + id);
+            trace("License " + id + " in " + pfile.getPath());
+        } else if (LOGGER.isLoggable(Level.FINE) && cb.hasTag(COPYRIGHT_BLOCK_TAG)) {
+            trace("Unknown license in " + pfile.getPath() + ", closest: " + licenses.closest(cb.comment()));
         }
-        */
-        return hadAnOldSunCopyright;
+    }
+
+    // counts pfile under the license of its first header block that has one
+    private void countLicense(ParsedFile pfile) {
+        if (licenses == null) {
+            return;
+        }
+        String id = UNKNOWN_LICENSE;
+        for (CommentBlock cb : pfile.getComments()) {
+            String tagged = cb.getTag(LICENSE_TAG_PREFIX);
+            if (tagged != null) {
+                id = tagged;
+                break;
+            }
+        }
+        Integer count = licenseCounts.get(id);
+        licenseCounts.put(id, count == null ? 1 : count + 1);
     }
 
     private void trace(String msg) {
         LOGGER.fine(msg);
     }
 
-    private void validationError(Block block, String msg, String fw) {
-        LOGGER.warning("Copyright validation error: " + msg + " for " + fw);
+    // where block differs from what modify would replace it with, or "" if that can't be told
+    private String describeMismatch(TemplateMatcher templates, CommentBlock block, LicenseTool.Arguments args) {
+        // the differences from the template the header is closest to
+        String comment = block.comment();
+        String expected = null;
+        int closest = -1;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < templates.size(); i++) {
+            String text = fixCopyright(templates.getText(i), block.getCopyright(), args, null);
+            int edits = HeaderDiff.distance(text, comment);
+            if (edits >= 0 && edits < fewest) {
+                expected = text;
+                closest = i;
+                fewest = edits;
+            }
+        }
+        if (expected == null) {
+            return " (more than " + HeaderDiff.MAX_EDITS + " words differ)";
+        }
+        List<String> spans = HeaderDiff.diff(expected, comment, MISMATCH_SPANS);
+        if (spans.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(" (");
+        if (templates.size() > 1) {
+            sb.append("closest to ").append(templates.getName(closest)).append(": ");
+        }
+        for (int i = 0; i < spans.size(); i++) {
+            if (i > 0) {
+                sb.append("; ");
+            }
+            sb.append(spans.get(i));
+        }
+        return sb.append(")").toString();
+    }
+
+    private void validationError(Block block, String msg, ParsedFile pfile) {
+        pfile.addValidationError(msg);
+        logValidationError(msg, pfile.getPath());
         if (block != null) {
             traceBlock(block);
         }
     }
 
+    /**
+     * Also used by the Scanner to repeat the errors of files that didn't change.
+     */
+    static void logValidationError(String msg, String path) {
+        LOGGER.warning("Copyright validation error: " + msg + " for " + path);
+    }
+
     private void traceBlock(Block block) {
 
         LOGGER.fine("Block=" + block);
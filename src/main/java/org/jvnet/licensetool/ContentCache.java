@@ -0,0 +1,330 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool;
+
+import org.jvnet.licensetool.file.FileWrapper;
+import org.jvnet.licensetool.generic.Pair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Verdicts on files kept by the hash of their contents, so that contents seen
+ * before, in another checkout or on another machine, are not parsed again.
+ * The key also covers the copyright template, the options, the version of
+ * this cache and the suffix of the file name, so anything that changes the
+ * verdict changes the key: the suffix picks the parser, and where it doesn't
+ * the contents do.
+ * <p>
+ * Values are looked up in the local store first and then in the remote one, if
+ * there is one; values found remotely are copied to the local store.  A remote
+ * store that fails once is not used again in this run.  Scanner only gives
+ * this cache a remote store when validating, since anyone can fill it.
+ */
+class ContentCache {
+    // changes to the tool that change verdicts must change this
+    private static final String VERSION = "2";
+
+    /**
+     * What the validate or modify action did with some contents.
+     */
+    static class Verdict {
+        private static final int ERRORS = 0;
+        private static final int UNCHANGED = 1;
+        private static final int REWRITTEN = 2;
+
+        // validation errors, or null for what the modify action did
+        final List<String> errors;
+        // text written in place of the bytes before tailOffset, or null if the file was left alone
+        final String head;
+        final long tailOffset;
+
+        private Verdict(List<String> errors, String head, long tailOffset) {
+            this.errors = errors;
+            this.head = head;
+            this.tailOffset = tailOffset;
+        }
+
+        static Verdict validated(List<String> errors) {
+            return new Verdict(new ArrayList<String>(errors), null, 0);
+        }
+
+        /**
+         * @param head null if the file was not changed.
+         */
+        static Verdict modified(String head, long tailOffset) {
+            return new Verdict(null, head, tailOffset);
+        }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(b);
+            if (errors != null) {
+                out.writeByte(ERRORS);
+                out.writeInt(errors.size());
+                for (String error : errors) {
+                    writeString(out, error);
+                }
+            } else if (head == null) {
+                out.writeByte(UNCHANGED);
+            } else {
+                out.writeByte(REWRITTEN);
+                out.writeLong(tailOffset);
+                writeString(out, head);
+            }
+            out.close();
+            return b.toByteArray();
+        }
+
+        static Verdict fromBytes(byte[] b) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+            switch (in.readByte()) {
+                case ERRORS:
+                    List<String> errors = new ArrayList<String>();
+                    for (int n = in.readInt(); n > 0; n--) {
+                        errors.add(readString(in));
+                    }
+                    return new Verdict(errors, null, 0);
+                case UNCHANGED:
+                    return new Verdict(null, null, 0);
+                case REWRITTEN:
+                    long tailOffset = in.readLong();
+                    return new Verdict(null, readString(in), tailOffset);
+                default:
+                    throw new IOException("Unknown verdict");
+            }
+        }
+
+        // writeUTF() is limited to 64K
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] b = s.getBytes("UTF-8");
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            return new String(b, "UTF-8");
+        }
+    }
+
+    private final ContentStore local;
+    private ContentStore remote;
+    private final byte[] config;
+    private final long maxFileSize;
+
+    /**
+     * @param local  null if there is no local store.
+     * @param remote null if there is no remote store.
+     * @param config everything else the verdicts depend on.
+     * @param maxFileSize larger files are not hashed; 0 means no limit.
+     */
+    ContentCache(ContentStore local, ContentStore remote, String config, long maxFileSize) {
+        this.local = local;
+        this.remote = remote;
+        MessageDigest md = newDigest();
+        try {
+            md.update((VERSION + '\u0000' + config).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        this.config = md.digest();
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Hashes the files and looks them all up together.  The result has the key of
+     * each file that could be hashed, with its verdict if one was stored.
+     */
+    Map<File, Pair<String, Verdict>> lookup(List<File> files) {
+        Map<File, Pair<String, Verdict>> result = new HashMap<File, Pair<String, Verdict>>();
+        // files with the same contents have the same key
+        Map<String, List<File>> filesOf = new HashMap<String, List<File>>();
+        for (File f : files) {
+            String key = keyOf(f);
+            if (key != null) {
+                if (!filesOf.containsKey(key)) {
+                    filesOf.put(key, new ArrayList<File>());
+                }
+                filesOf.get(key).add(f);
+                result.put(f, new Pair<String, Verdict>(key, null));
+            }
+        }
+        if (filesOf.isEmpty()) {
+            return result;
+        }
+        List<String> keys = new ArrayList<String>(filesOf.keySet());
+        Map<String, byte[]> values = new HashMap<String, byte[]>();
+        if (local != null) {
+            try {
+                values.putAll(local.get(keys));
+            } catch (IOException e) {
+                LOGGER.warning("Could not read the cache in " + local + ": " + e);
+            }
+        }
+        if (remote != null && values.size() < keys.size()) {
+            List<String> missing = new ArrayList<String>();
+            for (String key : keys) {
+                if (!values.containsKey(key)) {
+                    missing.add(key);
+                }
+            }
+            try {
+                Map<String, byte[]> found = remote.get(missing);
+                values.putAll(found);
+                for (Map.Entry<String, byte[]> e : found.entrySet()) {
+                    putLocal(e.getKey(), e.getValue());
+                }
+            } catch (IOException e) {
+                LOGGER.warning("Not using the cache at " + remote + " any more: " + e);
+                remote = null;
+            }
+        }
+        for (Map.Entry<String, byte[]> e : values.entrySet()) {
+            Verdict verdict;
+            try {
+                verdict = Verdict.fromBytes(e.getValue());
+            } catch (IOException ex) {
+                // damaged, it will be stored again
+                LOGGER.fine("Bad verdict for " + e.getKey() + ": " + ex);
+                continue;
+            }
+            for (File f : filesOf.get(e.getKey())) {
+                result.put(f, new Pair<String, Verdict>(e.getKey(), verdict));
+            }
+        }
+        return result;
+    }
+
+    Pair<String, Verdict> lookup(File f) {
+        return lookup(Collections.singletonList(f)).get(f);
+    }
+
+    /**
+     * Stores the verdict on the contents with the given key in both stores.
+     * Failures are logged, a missing verdict only costs time.
+     */
+    void put(String key, Verdict verdict) {
+        byte[] value;
+        try {
+            value = verdict.toBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        putLocal(key, value);
+        if (remote != null) {
+            try {
+                remote.put(key, value);
+            } catch (IOException e) {
+                LOGGER.warning("Not using the cache at " + remote + " any more: " + e);
+                remote = null;
+            }
+        }
+    }
+
+    private void putLocal(String key, byte[] value) {
+        if (local != null) {
+            try {
+                local.put(key, value);
+            } catch (IOException e) {
+                LOGGER.fine("Could not store " + key + " in " + local + ": " + e);
+            }
+        }
+    }
+
+    // hex SHA-1 of config, the suffix and the contents of f, or null if f can't be read or is too large
+    private String keyOf(File f) {
+        if (maxFileSize > 0 && f.length() > maxFileSize) {
+            return null;
+        }
+        MessageDigest md = newDigest();
+        md.update(config);
+        try {
+            String suffix = new FileWrapper(f).getSuffix();
+            md.update(((suffix == null ? "" : "." + suffix) + '\u0000').getBytes("UTF-8"));
+            InputStream in = new FileInputStream(f);
+            try {
+                byte[] buf = new byte[65536];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    md.update(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.fine("Could not hash " + f + ": " + e);
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ContentCache.class.getName());
+}
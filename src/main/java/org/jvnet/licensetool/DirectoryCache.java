@@ -0,0 +1,217 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool;
+
+import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.util.ToolUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Directory listings saved between runs.  A directory whose modification time
+ * is the same as when it was listed has the same entries, so it is expanded
+ * from the cache without reading it or asking for the type of each entry.
+ * <p>
+ * The file is binary: a magic number and version, the number of directories, and
+ * for each directory its path, modification time and entries with their types.
+ */
+class DirectoryCache {
+    private static final int MAGIC = 0x4c544443;
+    private static final int VERSION = 1;
+
+    // a directory changed this soon after it was listed may have the same time again,
+    // so it is not cached
+    private static final long RACY_MILLIS = 2000;
+
+    private static class Listing {
+        final long lastModified;
+        final String[] names;
+        final boolean[] directories;
+
+        Listing(long lastModified, int size) {
+            this.lastModified = lastModified;
+            this.names = new String[size];
+            this.directories = new boolean[size];
+        }
+    }
+
+    private final File file;
+    // absolute path -> listing, as loaded
+    private final Map<String, Listing> saved = new HashMap<String, Listing>();
+    // absolute path -> listing, for the directories listed in this run
+    private final Map<String, Listing> listed = new HashMap<String, Listing>();
+    // true once a directory had to be read again
+    private boolean changed = false;
+
+    DirectoryCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the cache saved in file.  Returns an empty cache if there is none
+     * or it can't be read.
+     */
+    static DirectoryCache load(File file) {
+        DirectoryCache cache = new DirectoryCache(file);
+        if (!file.isFile()) {
+            return cache;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return cache;
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    String path = in.readUTF();
+                    Listing listing = new Listing(in.readLong(), in.readInt());
+                    for (int i = 0; i < listing.names.length; i++) {
+                        listing.names[i] = in.readUTF();
+                        listing.directories[i] = in.readBoolean();
+                    }
+                    cache.saved.put(path, listing);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // truncated
+            LOGGER.fine("Could not read " + file + ": " + e);
+            cache.saved.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * The entries of dir, each with true if it is a directory.  Only dir itself is
+     * looked at if it didn't change since it was cached.
+     */
+    List<Pair<File, Boolean>> list(File dir) {
+        String path = dir.getAbsolutePath();
+        long lastModified = dir.lastModified();
+        boolean racy = System.currentTimeMillis() - lastModified <= RACY_MILLIS;
+        Listing listing = saved.get(path);
+        if (listing == null || listing.lastModified != lastModified || lastModified == 0) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                // not readable
+                return new ArrayList<Pair<File, Boolean>>();
+            }
+            listing = new Listing(lastModified, files.length);
+            for (int i = 0; i < files.length; i++) {
+                listing.names[i] = files[i].getName();
+                listing.directories[i] = files[i].isDirectory();
+            }
+            changed |= !racy;
+        }
+        if (!racy) {
+            listed.put(path, listing);
+        }
+        List<Pair<File, Boolean>> result = new ArrayList<Pair<File, Boolean>>(listing.names.length);
+        for (int i = 0; i < listing.names.length; i++) {
+            result.add(new Pair<File, Boolean>(new File(dir, listing.names[i]), listing.directories[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Writes the cache next to its file and renames it over the old one.  After a
+     * complete scan only the directories listed in it are kept, so that removed
+     * directories drop out; otherwise the rest of the old cache is kept as well.
+     * Nothing is written if that is what was loaded.  Failures are logged, a
+     * missing cache only costs time.
+     */
+    void save(boolean complete) {
+        if (!changed && (!complete || saved.keySet().equals(listed.keySet()))) {
+            return;
+        }
+        Map<String, Listing> listings = listed;
+        if (!complete) {
+            listings = new HashMap<String, Listing>(saved);
+            listings.putAll(listed);
+        }
+        File temp = null;
+        try {
+            file.getParentFile().mkdirs();
+            temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(listings.size());
+                for (Map.Entry<String, Listing> e : listings.entrySet()) {
+                    Listing listing = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(listing.lastModified);
+                    out.writeInt(listing.names.length);
+                    for (int i = 0; i < listing.names.length; i++) {
+                        out.writeUTF(listing.names[i]);
+                        out.writeBoolean(listing.directories[i]);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            ToolUtil.moveOver(temp, file);
+            temp = null;
+        } catch (IOException e) {
+            LOGGER.fine("Could not save " + file + ": " + e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DirectoryCache.class.getName());
+}
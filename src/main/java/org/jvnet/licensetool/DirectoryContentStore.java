@@ -0,0 +1,128 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool;
+
+import org.jvnet.licensetool.util.ToolUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ContentStore on the local disk: one file per key, spread over subdirectories
+ * named after the first two characters of the key.
+ */
+public class DirectoryContentStore implements ContentStore {
+    private final File dir;
+
+    public DirectoryContentStore(File dir) {
+        this.dir = dir;
+    }
+
+    public Map<String, byte[]> get(List<String> keys) throws IOException {
+        Map<String, byte[]> values = new HashMap<String, byte[]>();
+        for (String key : keys) {
+            File f = fileOf(key);
+            if (f.isFile()) {
+                values.put(key, readFully(f));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The value is written to a temporary file that is renamed into place, so
+     * readers never see half a value.
+     */
+    public void put(String key, byte[] value) throws IOException {
+        File f = fileOf(key);
+        File parent = f.getParentFile();
+        parent.mkdirs();
+        File temp = File.createTempFile(f.getName(), ".tmp", parent);
+        boolean done = false;
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(value);
+            } finally {
+                out.close();
+            }
+            ToolUtil.moveOver(temp, f);
+            done = true;
+        } finally {
+            if (!done) {
+                temp.delete();
+            }
+        }
+    }
+
+    private File fileOf(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key.substring(2));
+    }
+
+    private static byte[] readFully(File f) throws IOException {
+        byte[] b = new byte[(int) f.length()];
+        InputStream in = new FileInputStream(f);
+        try {
+            int n = 0;
+            while (n < b.length) {
+                int r = in.read(b, n, b.length - n);
+                if (r < 0) {
+                    throw new IOException("Unexpected end of " + f);
+                }
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        return b;
+    }
+
+    public String toString() {
+        return dir.toString();
+    }
+}
@@ -42,6 +42,7 @@ package org.jvnet.licensetool;
 
 import org.jvnet.licensetool.file.*;
 import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.util.ProcessingBudget;
 import org.jvnet.licensetool.util.ToolUtil;
 
 import java.io.IOException;
@@ -67,6 +68,7 @@ public class FileParserFactory {
                 public void insertCommentBlock(String commentText) {
                     CommentBlock cb = createCommentBlock(commentText);
                     cb.addTag(CommentBlock.TOP_COMMENT_BLOCK);
+                    markDirty();
                     Block fBlock = fileBlocks.get(0);
                     if (fBlock instanceof CommentBlock) {
                         LineCommentFile.LineCommentBlock  firstBlock = (LineCommentFile.LineCommentBlock) fBlock;
@@ -117,9 +119,11 @@ public class FileParserFactory {
             StringBuilder sb = new StringBuilder();
             fw.open(FileWrapper.OpenMode.READ);
             try {
-                List<String> fileAsLines = ToolUtil.splitToLines(fw.readAsString());
+                String fileContents = fw.readAsString();
+                List<String> fileAsLines = ToolUtil.splitToLines(fileContents);
                 int count = 0;
                 for (String line : fileAsLines) {
+                    ProcessingBudget.check();
                     if (count == 0) {
                         if (line.startsWith("#!")) {
                             result.add(new LineCommentFile.LineCommentBlock(prefix, line, new HashSet<String>()));
@@ -153,9 +157,12 @@ public class FileParserFactory {
                 }
                 //add the last block
                 if (sb.length() != 0) {
-                    if (inComment)
-                        result.add(new LineCommentFile.LineCommentBlock(prefix, sb.toString(), new HashSet<String>()));
-                    else
+                    if (inComment) {
+                        // in the head of a large file, the comment may go on in the tail, so leave it there
+                        if (result.isEmpty() || !fw.isPartiallyRead()
+                                || !fw.endHeadAt(fileContents, fileContents.length() - sb.length()))
+                            result.add(new LineCommentFile.LineCommentBlock(prefix, sb.toString(), new HashSet<String>()));
+                    } else
                         result.add(new PlainBlock(sb.toString()));
                 }
                 return result;
@@ -187,17 +194,8 @@ public class FileParserFactory {
 
                     @Override //Hack to put " " before end prefix "*/"
                     protected CommentBlock createCommentBlock(String commentText) {
-
-                        final List<String> commentTextBlock = new ArrayList<String>();
-                        List<String> dataAsLines = ToolUtil.splitToLines(commentText);
-                        for (String str : dataAsLines) {
-                            commentTextBlock.add(prefix + ToolUtil.covertLineBreak(str, line_separator));
-                        }
-                        commentTextBlock.add(0, start + line_separator);
-                        //Hack to put " " before end prefix "*/"
-                        commentTextBlock.add(commentTextBlock.size(), " "+end);
-
-                        return new MultiLineCommentFile.MultiLineCommentBlock(start, end, prefix, commentTextBlock, new HashSet<String>());
+                        return MultiLineCommentFile.MultiLineCommentBlock.createCommentBlock(start, end, prefix,
+                                commentText, line_separator, " " + end);
                     }
                 };
             }
@@ -228,6 +226,7 @@ public class FileParserFactory {
                     public void insertCommentBlock(String commentText) {
                         CommentBlock cb = createCommentBlock(commentText);
                         cb.addTag(CommentBlock.TOP_COMMENT_BLOCK);
+                        markDirty();
                         Block firstBlock = fileBlocks.get(0);
                         if (firstBlock instanceof CommentBlock) {
                             fileBlocks.add(0,cb);
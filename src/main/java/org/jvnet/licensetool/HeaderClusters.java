@@ -0,0 +1,252 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Groups the header comments of many files into clusters of near-duplicates,
+ * for finding out which header variants a code base has.
+ * <p>
+ * Each header is normalized (years become YYYY, runs of white space a single
+ * space) and reduced to a 64 bit SimHash of its 3-word shingles.  Headers whose
+ * SimHashes differ in at most MAX_DISTANCE bits join the same cluster.  The
+ * SimHash is cut into MAX_DISTANCE+1 bands, and two SimHashes that close must
+ * agree on at least one band, so only the clusters sharing a band with a header
+ * are compared with it, never all of them.
+ * <p>
+ * add() may be called from several threads; the SimHash is computed on the
+ * calling thread and only finding the cluster is serialized.  There are at most
+ * MAX_CLUSTERS clusters, each keeping the first MAX_TEXT characters of its first
+ * header and EXAMPLES paths, so the clusters take a few tens of megabytes at
+ * most however many files there are.  Headers that would start another cluster
+ * beyond that are only counted.
+ */
+public class HeaderClusters {
+    private static final int MAX_DISTANCE = 3;
+    private static final int BANDS = MAX_DISTANCE + 1;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final int SHINGLE = 3;
+    private static final int EXAMPLES = 5;
+    private static final int MAX_TEXT = 1000;
+    // beyond this many clusters, new headers are only counted
+    private static final int MAX_CLUSTERS = 10000;
+    private static final int REPORTED = 100;
+
+    private static final Pattern YEAR = Pattern.compile("\\b(19|20)[0-9]{2}\\b");
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+
+    /**
+     * Files with nearly the same header.
+     */
+    public static class Cluster {
+        private final long simHash;
+        private final String text;
+        private final List<String> examples = new ArrayList<String>();
+        private int size = 0;
+
+        Cluster(long simHash, String text) {
+            this.simHash = simHash;
+            this.text = text;
+        }
+
+        /**
+         * The normalized header of the first file of the cluster.
+         */
+        public String getText() {
+            return text;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public List<String> getExamples() {
+            return examples;
+        }
+    }
+
+    private final List<Cluster> clusters = new ArrayList<Cluster>();
+    // band and its bits -> clusters whose SimHash has those bits in that band
+    private final Map<Long, List<Cluster>> buckets = new HashMap<Long, List<Cluster>>();
+    private int withoutHeader = 0;
+    private int unclustered = 0;
+
+    /**
+     * Adds the header of the file at path; null if it has none.
+     */
+    public void add(String path, String header) {
+        if (header == null) {
+            synchronized (this) {
+                withoutHeader++;
+            }
+            return;
+        }
+        String text = normalize(header);
+        assign(path, text, simHash(text));
+    }
+
+    /**
+     * The clusters, largest first.
+     */
+    public synchronized List<Cluster> getClusters() {
+        List<Cluster> result = new ArrayList<Cluster>(clusters);
+        Collections.sort(result, new Comparator<Cluster>() {
+            public int compare(Cluster a, Cluster b) {
+                return b.size - a.size;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Logs the largest clusters with their sizes, texts and example paths.
+     */
+    public void report() {
+        List<Cluster> sorted = getClusters();
+        int files = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            Cluster c = sorted.get(i);
+            if (i >= REPORTED) {
+                files += c.size;
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append("Header variant ").append(i + 1).append(": ").append(c.size).append(" files, e.g.");
+            for (String example : c.examples) {
+                sb.append("\n    ").append(example);
+            }
+            sb.append("\n").append(c.text);
+            LOGGER.info(sb.toString());
+        }
+        if (sorted.size() > REPORTED) {
+            LOGGER.info((sorted.size() - REPORTED) + " more header variants in " + files + " files");
+        }
+        synchronized (this) {
+            if (unclustered > 0) {
+                LOGGER.info(unclustered + " files with headers not clustered, there were too many variants");
+            }
+            LOGGER.info(withoutHeader + " files without a header");
+        }
+    }
+
+    private synchronized void assign(String path, String text, long simHash) {
+        Cluster cluster = null;
+        for (int b = 0; b < BANDS && cluster == null; b++) {
+            List<Cluster> bucket = buckets.get(bandKey(simHash, b));
+            if (bucket != null) {
+                for (Cluster c : bucket) {
+                    if (Long.bitCount(c.simHash ^ simHash) <= MAX_DISTANCE) {
+                        cluster = c;
+                        break;
+                    }
+                }
+            }
+        }
+        if (cluster == null) {
+            if (clusters.size() >= MAX_CLUSTERS) {
+                unclustered++;
+                return;
+            }
+            cluster = new Cluster(simHash, text.length() > MAX_TEXT ? text.substring(0, MAX_TEXT) + "..." : text);
+            clusters.add(cluster);
+            for (int b = 0; b < BANDS; b++) {
+                Long key = bandKey(simHash, b);
+                List<Cluster> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<Cluster>(1);
+                    buckets.put(key, bucket);
+                }
+                bucket.add(cluster);
+            }
+        }
+        cluster.size++;
+        if (cluster.examples.size() < EXAMPLES) {
+            cluster.examples.add(path);
+        }
+    }
+
+    private static Long bandKey(long simHash, int band) {
+        long bits = (simHash >>> (band * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+        return ((long) band << BAND_BITS) | bits;
+    }
+
+    static String normalize(String header) {
+        String s = YEAR.matcher(header).replaceAll("YYYY");
+        return SPACE.matcher(s).replaceAll(" ").trim();
+    }
+
+    // each bit is the majority vote of the hashes of the shingles of the lowercase words
+    static long simHash(String text) {
+        String[] words = SPACE.split(text.toLowerCase());
+        int[] votes = new int[64];
+        int n = Math.max(1, words.length - SHINGLE + 1);
+        for (int i = 0; i < n; i++) {
+            long h = 0xcbf29ce484222325L;
+            for (int j = i; j < Math.min(words.length, i + SHINGLE); j++) {
+                String w = words[j];
+                for (int k = 0; k < w.length(); k++) {
+                    h = (h ^ w.charAt(k)) * 0x100000001b3L;
+                }
+                h = (h ^ ' ') * 0x100000001b3L;
+            }
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += ((h >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return simHash;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(HeaderClusters.class.getName());
+}
@@ -0,0 +1,138 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ContentStore on an HTTP server: a value is read with GET and stored with PUT
+ * at the base URL followed by its key.  Any server that keeps what is PUT and
+ * answers 404 for what it doesn't have will do, like the cache servers of most
+ * CI systems.  Connections are kept alive between the requests of a batch.
+ */
+public class HttpContentStore implements ContentStore {
+    private static final int TIMEOUT = 10000;
+
+    private final String base;
+
+    public HttpContentStore(String base) {
+        this.base = base.endsWith("/") ? base : base + "/";
+    }
+
+    public Map<String, byte[]> get(List<String> keys) throws IOException {
+        Map<String, byte[]> values = new HashMap<String, byte[]>();
+        for (String key : keys) {
+            HttpURLConnection c = open(key);
+            int status = c.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK) {
+                values.put(key, readFully(c.getInputStream()));
+            } else if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                drain(c.getErrorStream());
+            } else {
+                drain(c.getErrorStream());
+                throw new IOException("GET " + c.getURL() + " returned " + status);
+            }
+        }
+        return values;
+    }
+
+    public void put(String key, byte[] value) throws IOException {
+        HttpURLConnection c = open(key);
+        c.setRequestMethod("PUT");
+        c.setDoOutput(true);
+        c.setFixedLengthStreamingMode(value.length);
+        c.setRequestProperty("Content-Type", "application/octet-stream");
+        OutputStream out = c.getOutputStream();
+        try {
+            out.write(value);
+        } finally {
+            out.close();
+        }
+        int status = c.getResponseCode();
+        if (status / 100 == 2) {
+            drain(c.getInputStream());
+        } else {
+            drain(c.getErrorStream());
+            throw new IOException("PUT " + c.getURL() + " returned " + status);
+        }
+    }
+
+    private HttpURLConnection open(String key) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(base + key).openConnection();
+        c.setConnectTimeout(TIMEOUT);
+        c.setReadTimeout(TIMEOUT);
+        c.setUseCaches(false);
+        return c;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    // reading the body to the end lets the connection be reused
+    private static void drain(InputStream in) throws IOException {
+        if (in != null) {
+            readFully(in);
+        }
+    }
+
+    public String toString() {
+        return base;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool;
+
+import org.jvnet.licensetool.util.BKTree;
+import org.jvnet.licensetool.util.ProcessingBudget;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A library of known license texts, for telling which license a comment holds.
+ * <p>
+ * Texts are compared as lowercase word tokens, with numbers reduced to "0" and
+ * copyright lines left out, since those differ from file to file.  Placeholders
+ * in a license text, like &lt;OWNER&gt;, [year] or ${name}, stand for up to
+ * MAX_PLACEHOLDER_WORDS words.
+ * <p>
+ * Candidates are found with MinHash signatures of the 3-word shingles of each text
+ * and locality sensitive hashing: the signatures are cut into bands, and texts
+ * sharing a band with a comment are likely to share most shingles with it.  Each
+ * candidate is then confirmed with a regular expression compiled from its text,
+ * and the longest confirmed license wins, so that a GPL/CDDL dual license is not
+ * taken for just one of them.
+ * <p>
+ * The library doesn't change once loaded and is shared by all threads.
+ */
+public class LicenseLibrary {
+    private static final int SHINGLE = 3;
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    private static final int HASHES = BANDS * ROWS;
+    private static final int MAX_PLACEHOLDER_WORDS = 8;
+    // stands for a placeholder among the tokens
+    private static final String PLACEHOLDER = "\u0001";
+
+    private static final Pattern PLACEHOLDERS = Pattern.compile("<[^<>\\n]{1,60}>|\\[[^\\[\\]\\n]{1,60}\\]|\\$\\{[^}\\n]{1,60}\\}");
+    private static final Pattern COPYRIGHT_LINE = Pattern.compile("(?i)^\\W*copyright\\s*(\\(c\\)|\u00a9|[0-9]|yyyy|\\[|<|\\$\\{)");
+
+    private static final long[] SEEDS = new long[HASHES];
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private static class License {
+        final String id;
+        final Pattern matcher;
+        final int length;
+
+        License(String id, Pattern matcher, int length) {
+            this.id = id;
+            this.matcher = matcher;
+            this.length = length;
+        }
+    }
+
+    private final List<License> licenses = new ArrayList<License>();
+    // band and its hash -> indexes of the licenses with that band
+    private final Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+    // normalized text -> id, for naming the closest license of unknown comments
+    private final Map<String, String> idOf = new HashMap<String, String>();
+    private final BKTree texts;
+
+    /**
+     * Loads each file in dir as a license whose id is the file name without
+     * its extension.
+     */
+    public static LicenseLibrary load(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list the licenses in " + dir);
+        }
+        Arrays.sort(files);
+        Map<String, String> texts = new HashMap<String, String>();
+        List<String> ids = new ArrayList<String>();
+        for (File f : files) {
+            if (!f.isFile() || f.getName().startsWith(".")) {
+                continue;
+            }
+            String name = f.getName();
+            String id = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+            texts.put(id, read(f));
+            ids.add(id);
+        }
+        return new LicenseLibrary(ids, texts);
+    }
+
+    LicenseLibrary(List<String> ids, Map<String, String> texts) {
+        for (String id : ids) {
+            List<String> tokens = tokenize(texts.get(id), true);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            int index = licenses.size();
+            licenses.add(new License(id, compile(tokens), tokens.size()));
+            int[] signature = signature(tokens);
+            for (int b = 0; b < BANDS; b++) {
+                Long key = bandKey(signature, b);
+                List<Integer> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<Integer>();
+                    buckets.put(key, bucket);
+                }
+                bucket.add(index);
+            }
+            idOf.put(join(tokens), id);
+        }
+        this.texts = new BKTree(idOf.keySet());
+    }
+
+    public int size() {
+        return licenses.size();
+    }
+
+    /**
+     * The id of the license in comment, or null if it has none of the known ones.
+     */
+    public String classify(String comment) {
+        List<String> tokens = tokenize(comment, false);
+        if (tokens.size() < SHINGLE) {
+            return null;
+        }
+        int[] signature = signature(tokens);
+        Set<Integer> candidates = new HashSet<Integer>();
+        for (int b = 0; b < BANDS; b++) {
+            List<Integer> bucket = buckets.get(bandKey(signature, b));
+            if (bucket != null) {
+                candidates.addAll(bucket);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        CharSequence text = ProcessingBudget.guard(join(tokens));
+        License best = null;
+        for (int i : candidates) {
+            License license = licenses.get(i);
+            if ((best == null || license.length > best.length) && license.matcher.matcher(text).find()) {
+                best = license;
+            }
+        }
+        return best == null ? null : best.id;
+    }
+
+    /**
+     * The id of the license closest to comment in edit distance, if it is within
+     * a quarter of the length of the comment; null otherwise.  For reporting
+     * comments that classify() doesn't recognize.
+     */
+    public String closest(String comment) {
+        String text = join(tokenize(comment, false));
+        List<BKTree.Match> matches = texts.findNearest(text, 1);
+        if (matches.isEmpty() || matches.get(0).distance > text.length() / 4) {
+            return null;
+        }
+        return idOf.get(matches.get(0).value) + " (distance " + matches.get(0).distance + ")";
+    }
+
+    // the tokens as a regular expression over the joined tokens of a comment
+    private static Pattern compile(List<String> tokens) {
+        StringBuilder sb = new StringBuilder("(?:^| )");
+        StringBuilder literal = new StringBuilder();
+        boolean first = true;
+        for (String t : tokens) {
+            if (t.equals(PLACEHOLDER)) {
+                if (literal.length() > 0) {
+                    sb.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                int more = MAX_PLACEHOLDER_WORDS - 1;
+                sb.append(first ? "[^ ]+(?: [^ ]+){0," + more + "}?" : "(?: [^ ]+){1," + (more + 1) + "}?");
+            } else {
+                literal.append(first ? "" : " ").append(t);
+            }
+            first = false;
+        }
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+        sb.append("(?= |$)");
+        return Pattern.compile(sb.toString());
+    }
+
+    /**
+     * Lowercase words and numbers, numbers reduced to "0", without copyright lines.
+     * The placeholders of a license text become PLACEHOLDER tokens.
+     */
+    private static List<String> tokenize(String text, boolean license) {
+        List<String> tokens = new ArrayList<String>();
+        for (String line : text.split("\r\n|\r|\n")) {
+            if (COPYRIGHT_LINE.matcher(line).find()) {
+                continue;
+            }
+            if (license) {
+                line = PLACEHOLDERS.matcher(line).replaceAll(" " + PLACEHOLDER + " ");
+            }
+            int i = 0;
+            int n = line.length();
+            while (i < n) {
+                char c = line.charAt(i);
+                if (line.startsWith(PLACEHOLDER, i)) {
+                    tokens.add(PLACEHOLDER);
+                    i++;
+                } else if (Character.isLetterOrDigit(c)) {
+                    int start = i;
+                    boolean number = true;
+                    while (i < n && Character.isLetterOrDigit(line.charAt(i))) {
+                        number &= Character.isDigit(line.charAt(i));
+                        i++;
+                    }
+                    tokens.add(number ? "0" : line.substring(start, i).toLowerCase());
+                } else {
+                    i++;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static String join(List<String> tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (String t : tokens) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+    // the smallest value of each of the hash functions over the shingles
+    private static int[] signature(List<String> tokens) {
+        int[] signature = new int[HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int i = 0; i + SHINGLE <= tokens.size(); i++) {
+            long h = 0;
+            for (int j = i; j < i + SHINGLE; j++) {
+                h = h * 31 + tokens.get(j).hashCode();
+            }
+            for (int k = 0; k < HASHES; k++) {
+                int v = (int) (mix(h ^ SEEDS[k]) >>> 33);
+                if (v < signature[k]) {
+                    signature[k] = v;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static Long bandKey(int[] signature, int band) {
+        long h = band;
+        for (int r = band * ROWS; r < (band + 1) * ROWS; r++) {
+            h = mix(h * 31 + signature[r]);
+        }
+        return h;
+    }
+
+    // the finalizer of MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String read(File f) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            char[] buf = new char[4096];
+            int n;
+            while ((n = r.read(buf)) != -1) {
+                sb.append(buf, 0, n);
+            }
+        } finally {
+            r.close();
+        }
+        return sb.toString();
+    }
+}
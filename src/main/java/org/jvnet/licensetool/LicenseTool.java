@@ -45,17 +45,18 @@ import org.jvnet.licensetool.argparser.DefaultValue;
 import org.jvnet.licensetool.argparser.Help;
 import org.jvnet.licensetool.file.PlainBlock;
 import org.jvnet.licensetool.file.FileWrapper;
+import org.jvnet.licensetool.util.TemplateMatcher;
 import org.jvnet.licensetool.util.ToolUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.*;
-import java.util.regex.Pattern;
 
 public class LicenseTool {
     private LicenseTool() {
@@ -106,6 +107,45 @@ public class LicenseTool {
         @Help("Set to true to use last modified date of the file from VCS history if it is later than the end year")
         boolean uselastmodified();
 
+        @DefaultValue("16777216")
+        @Help("Files larger than this many bytes are skipped as too expensive to process; 0 means no limit")
+        long maxfilesize();
+
+        @DefaultValue("60000")
+        @Help("Files taking longer than this many milliseconds to process are skipped as too expensive; 0 means no limit")
+        long maxfiletime();
+
+        @DefaultValue("8388608")
+        @Help("When modifying, only the head of files larger than this many bytes is parsed and the rest is copied as is; 0 disables streaming")
+        long streamthreshold();
+
+        @DefaultValue("false")
+        @Help("Set to true to scan the files under version control, as listed by the VCS, instead of listing directories")
+        boolean usevcsfiles();
+
+        @DefaultValue("")
+        @Help("Directory to keep caches in between runs, so that unchanged directories are not listed again; none if empty")
+        String cachedir();
+
+        @DefaultValue("false")
+        @Help("Set to true to trust that files in a directory whose time didn't change are unchanged, when validating with a cachedir; files edited in place are missed")
+        boolean trustdirtimes();
+
+        @DefaultValue("")
+        @Help("Base URL of an HTTP cache, shared between machines, that keeps what was found in files by the hash of their contents; only used when validating; none if empty")
+        String remotecache();
+
+        @DefaultValue("")
+        @Help("Directory of known license texts, one per file named after the license; header comments are tagged with the license they hold and the files are counted by license; the caches are not used then")
+        String licenses();
+
+        @DefaultValue("false")
+        @Help("Set to true to only report the variants of the top comment of the files, grouped by similarity, with how many files have each")
+        boolean discover();
+
+        @Help("Files with other copyright texts that are accepted in headers, besides the one in copyright")
+        @DefaultValue("")
+        List<File> templates();
 
     }
 
@@ -146,21 +186,6 @@ public class LicenseTool {
     private static final String START_YEAR = "StartYear";
     private static final Logger LOGGER = Logger.getLogger(LicenseTool.class.getName());
 
-    private static PlainBlock makeCopyrightPatternBlock(PlainBlock copyrightTextBlock) {
-        StringBuilder sb = new StringBuilder();
-        String copyrightText = Pattern.quote(copyrightTextBlock.contents());
-
-        for(String line: ToolUtil.splitToLines(copyrightText) ) {
-            if(line.contains("YYYY ")) {
-                line = line.replace("YYYY ", "\\E[0-9]{4}(-[0-9]{4})? \\Q");
-            } else if(line.contains("YYYY, ")) {
-                line = line.replace("YYYY, ","\\E([0-9]{4}, )+\\Q");
-            }
-            sb.append(line);
-        }
-        return new PlainBlock(sb.toString());
-
-    }
     private static PlainBlock makeCopyrightBlock(String startYear,
                                             PlainBlock copyrightText) {
 
@@ -227,13 +252,35 @@ public class LicenseTool {
 //        }
 
         try {
+            // discover only reads the headers, it needs no copyright
+            if (args.discover()) {
+                Scanner scanner = new Scanner(args, args.roots());
+                for (String str : args.skipdirs())
+                    scanner.addDirectoryToSkip(str);
+                HeaderClusters clusters = new HeaderClusters();
+                scanner.scan(new RecognizerFactory().getDefaultRecognizer(),
+                        new ActionFactory().getDiscoverAction(clusters));
+                clusters.report();
+                return;
+            }
+
             // Create the blocks needed for different forms of the
             // copyright comment template                                                                   n ddr
             final PlainBlock copyrightText = new PlainBlock(args.copyright());
 
             //TODO remove 123
             //PlainBlock copyrightTemplate = makeCopyrightBlock(startYear, copyrightText);
-            PlainBlock copyrightTemplate = makeCopyrightPatternBlock(copyrightText);
+            TemplateMatcher templates = new TemplateMatcher();
+            templates.add(args.copyright().getName(), copyrightText.contents());
+            StringBuilder templateTexts = new StringBuilder();
+            for (File file : args.templates()) {
+                if (file.getPath().equals("")) {
+                    continue;
+                }
+                String text = new PlainBlock(new FileWrapper(file)).contents();
+                templates.add(file.getName(), text);
+                templateTexts.append("\n").append(text);
+            }
 
 
             Scanner scanner = new Scanner(args, args.roots());
@@ -241,17 +288,43 @@ public class LicenseTool {
                 scanner.addDirectoryToSkip(str);
 
             Scanner.Action action;
+            ActionFactory actionFactory = new ActionFactory();
+            if (!args.licenses().equals("")) {
+                LicenseLibrary licenses = LicenseLibrary.load(new File(args.licenses()));
+                trace("Loaded " + licenses.size() + " licenses from " + args.licenses());
+                actionFactory.setLicenseLibrary(licenses);
+            } else {
+                // a verdict repeated from the caches says nothing of the license,
+                // so every file is parsed when licenses are counted
+                scanner.cacheVerdicts(validate + "\n" + copyrightText.contents() + "\n" + args.options() + "\n"
+                        + startYear + "\n" + args.endyear() + "\n" + Charset.defaultCharset().name() + templateTexts);
+            }
             if(validate) {
-                action = new ActionFactory().getValidateCopyrightAction(copyrightText, copyrightTemplate, args);
+                action = actionFactory.getValidateCopyrightAction(copyrightText, templates, args);
             } else {
-                action = new ActionFactory().getModifyCopyrightAction(copyrightText, copyrightTemplate, args);
+                action = actionFactory.getModifyCopyrightAction(copyrightText, templates, args);
                 //action = new ActionFactory(verbose).getReWriteCopyrightAction();
             }
             // Finally, we process all files
             scanner.scan(new RecognizerFactory().getDefaultRecognizer(), action);
+            if(!validate) {
+                LOGGER.info("Inspected " + (actionFactory.getFilesInspected() + scanner.getFilesFromCache())
+                        + " files, changed " + (actionFactory.getFilesChanged() + scanner.getFilesChangedFromCache()));
+            }
+            if (!args.licenses().equals("")) {
+                StringBuilder sb = new StringBuilder("Licenses:");
+                String sep = " ";
+                for (Map.Entry<String, Integer> entry : actionFactory.getLicenseCounts().entrySet()) {
+                    sb.append(sep).append(entry.getKey()).append(" in ").append(entry.getValue()).append(" files");
+                    sep = ", ";
+                }
+                LOGGER.info(sb.toString());
+            }
         } catch (Exception ex) {
             LOGGER.warning("Exception while processing: " + ex);
             ex.printStackTrace();
+        } finally {
+            sh.flush();
         }
     }
 
@@ -65,6 +65,16 @@ public class LicenseToolTask extends MatchingTask {
     boolean dryrun = false;
     boolean uselastmodified = false;
     String vcs = "";
+    long maxfilesize = 16777216;
+    long maxfiletime = 60000;
+    long streamthreshold = 8388608;
+    boolean usevcsfiles = false;
+    String cachedir = "";
+    boolean trustdirtimes = false;
+    String remotecache = "";
+    String licenses = "";
+    boolean discover = false;
+    List<File> templates = new ArrayList<File>();
     private File srcDir;
 
     public void setSrcDir(File srcDir) {
@@ -108,6 +118,48 @@ public class LicenseToolTask extends MatchingTask {
         }
 
 
+    public void setMaxfilesize(long maxfilesize) {
+        this.maxfilesize = maxfilesize;
+    }
+
+    public void setMaxfiletime(long maxfiletime) {
+        this.maxfiletime = maxfiletime;
+    }
+
+    public void setStreamthreshold(long streamthreshold) {
+        this.streamthreshold = streamthreshold;
+    }
+
+    public void setUsevcsfiles(boolean usevcsfiles) {
+        this.usevcsfiles = usevcsfiles;
+    }
+
+    public void setCachedir(String cachedir) {
+        this.cachedir = cachedir;
+    }
+
+    public void setTrustdirtimes(boolean trustdirtimes) {
+        this.trustdirtimes = trustdirtimes;
+    }
+
+    public void setRemotecache(String remotecache) {
+        this.remotecache = remotecache;
+    }
+
+    public void setLicenses(String licenses) {
+        this.licenses = licenses;
+    }
+
+    public void setDiscover(boolean discover) {
+        this.discover = discover;
+    }
+
+    public void setTemplates(String templates) {
+        for (String name : templates.split(",")) {
+            this.templates.add(getProject().resolveFile(name.trim()));
+        }
+    }
+
     public void setOptions(String options) {
         this.options = Arrays.asList(options.split(","));
     }
@@ -164,6 +216,46 @@ public class LicenseToolTask extends MatchingTask {
             public boolean uselastmodified() {
                 return false;
             }
+
+            public long maxfilesize() {
+                return maxfilesize;
+            }
+
+            public long maxfiletime() {
+                return maxfiletime;
+            }
+
+            public long streamthreshold() {
+                return streamthreshold;
+            }
+
+            public boolean usevcsfiles() {
+                return usevcsfiles;
+            }
+
+            public String cachedir() {
+                return cachedir;
+            }
+
+            public boolean trustdirtimes() {
+                return trustdirtimes;
+            }
+
+            public String remotecache() {
+                return remotecache;
+            }
+
+            public String licenses() {
+                return licenses;
+            }
+
+            public boolean discover() {
+                return discover;
+            }
+
+            public List<File> templates() {
+                return templates;
+            }
         };
 
        LicenseTool.process(args);
@@ -42,12 +42,15 @@ package org.jvnet.licensetool;
 
 import org.jvnet.licensetool.file.*;
 import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.util.ProcessingBudget;
 import org.jvnet.licensetool.util.ToolUtil;
 
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.io.IOException;
 
@@ -56,8 +59,19 @@ import java.io.IOException;
  */
 public class LineCommentFile {
     public static class LineCommentBlock extends CommentBlock {
-        protected final List<Pair<String, String>> commentLines = new ArrayList<Pair<String, String>>();        
+        // contents() of the block, its lines one after the other
+        private String text = "";
+        // from and to offsets in text of the comment part of each line, after the
+        // prefix, pairwise.  A line ends where its comment part does.
+        private int[] spans = new int[0];
         final String prefix;
+        // comment() as last rendered, null until then and after replace()
+        private String comment = null;
+
+        // comment syntax and text -> block created for them, never handed out itself
+        private static final Map<Pair<String, String>, LineCommentBlock> createdBlocks =
+                new HashMap<Pair<String, String>, LineCommentBlock>();
+        private static final int MAX_CREATED_BLOCKS = 64;
 
         public LineCommentBlock(String prefix, List<String> lineComment, Set<String> tags) {
             super(tags);
@@ -71,64 +85,124 @@ public class LineCommentFile {
             parse(lineComment);
         }
 
+        // a copy of other, with tags of its own
+        private LineCommentBlock(LineCommentBlock other) {
+            super(new HashSet<String>());
+            this.prefix = other.prefix;
+            // neither is changed in place
+            text = other.text;
+            spans = other.spans;
+        }
+
+        /**
+         * Creates a block for commentText.  Most files get the same header, so the
+         * block is only built the first time and copied after that.
+         */
         public static CommentBlock createCommentBlock(String prefix, final String commentText, String line_separator) {
-            final List<String> commentTextBlock = new ArrayList<String>();
-            List<String> dataAslines = ToolUtil.splitToLines(commentText);
-            if (!dataAslines.get(0).trim().equals(""))
-                commentTextBlock.add(prefix + line_separator);
-            for (String str : dataAslines) {
-                commentTextBlock.add(prefix + ToolUtil.covertLineBreak(str, line_separator));
+            Pair<String, String> key = new Pair<String, String>(prefix + "\n" + line_separator, commentText);
+            LineCommentBlock block;
+            synchronized (createdBlocks) {
+                block = createdBlocks.get(key);
+            }
+            if (block == null) {
+                final List<String> commentTextBlock = new ArrayList<String>();
+                List<String> dataAslines = ToolUtil.splitToLines(commentText);
+                if (!dataAslines.get(0).trim().equals(""))
+                    commentTextBlock.add(prefix + line_separator);
+                for (String str : dataAslines) {
+                    commentTextBlock.add(prefix + ToolUtil.covertLineBreak(str, line_separator));
+                }
+                if (!dataAslines.get(dataAslines.size() - 1).trim().equals(""))
+                    commentTextBlock.add(prefix + line_separator);
+                block = new LineCommentBlock(prefix, commentTextBlock, new HashSet<String>());
+                synchronized (createdBlocks) {
+                    if (createdBlocks.size() >= MAX_CREATED_BLOCKS) {
+                        createdBlocks.clear();
+                    }
+                    createdBlocks.put(key, block);
+                }
             }
-            if (!dataAslines.get(dataAslines.size() - 1).trim().equals(""))
-                commentTextBlock.add(prefix + line_separator);
-            return new LineCommentBlock(prefix, commentTextBlock, new HashSet<String>());
+            return new LineCommentBlock(block);
         }
 
 
         public Block replace(String content) {
-            commentLines.clear();
+            markModified();
             List<String> dataAslines = ToolUtil.splitToLines(content);
+            StringBuilder sb = new StringBuilder();
+            int[] s = new int[2 * dataAslines.size()];
+            int i = 0;
             for (String str : dataAslines) {
-                commentLines.add(new Pair<String, String>(prefix, str));
+                sb.append(prefix);
+                s[i++] = sb.length();
+                sb.append(str);
+                s[i++] = sb.length();
             }
+            text = sb.toString();
+            spans = s;
+            comment = null;
             return this;
         }
 
         public String contents() {
-            StringBuilder sb = new StringBuilder();
-            for(Pair<String,String> line: commentLines) {
-                sb.append(line.first());
-                sb.append(line.second());
-            }
-            return sb.toString();
+            return text;
         }
 
         public String comment() {
-            StringBuilder sb = new StringBuilder();
-            for(int i=0; i < commentLines.size(); i++) {
-                Pair<String,String> line = commentLines.get(i);
-                if(i==0 || i == commentLines.size()-1){
-                    if(!line.second().trim().equals("")) {
-                        sb.append(line.second());
+            if (comment == null) {
+                StringBuilder sb = new StringBuilder();
+                int last = spans.length - 2;
+                for (int i = 0; i <= last; i += 2) {
+                    // the first and last lines only count if they are not blank
+                    if ((i == 0 || i == last) && isBlank(spans[i], spans[i + 1])) {
+                        continue;
                     }
-                } else {
-                    sb.append(line.second());
+                    sb.append(text, spans[i], spans[i + 1]);
+                }
+                comment = sb.toString();
+            }
+            return comment;
+        }
+
+        private boolean isBlank(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (text.charAt(i) > ' ') {
+                    return false;
                 }
             }
-            return sb.toString();
+            return true;
         }
 
         private void parse(String data) {
-            List<String> dataAsLines = ToolUtil.splitToLines(data);
-            parse(dataAsLines);
+            int lines = 0;
+            for (int i = 0; i != -1; i = ToolUtil.nextLineStart(data, i)) {
+                lines++;
+            }
+            int[] s = new int[2 * lines];
+            int n = 0;
+            int lineStart = 0;
+            while (true) {
+                int next = ToolUtil.nextLineStart(data, lineStart);
+                int lineEnd = next == -1 ? data.length() : next;
+                int index = data.indexOf(prefix, lineStart);
+                int from = index >= 0 && index < lineEnd ? index + prefix.length() : lineStart + prefix.length() - 1;
+                s[n++] = Math.min(Math.max(from, lineStart), lineEnd);
+                s[n++] = lineEnd;
+                if (next == -1) {
+                    break;
+                }
+                lineStart = next;
+            }
+            text = data;
+            spans = s;
         }
 
         private void parse(List<String> data) {
+            StringBuilder sb = new StringBuilder();
             for (String str : data) {
-                String commmentPrefix = str.substring(0, str.indexOf(prefix) + prefix.length());
-                String commentSuffix = str.substring(str.indexOf(prefix) + prefix.length());
-                commentLines.add(new Pair<String, String>(commmentPrefix, commentSuffix));
+                sb.append(str);
             }
+            parse(sb.toString());
         }
 
         /**
@@ -136,16 +210,11 @@ public class LineCommentFile {
          * first line of the original Block in result.first().
          */
         public Pair<LineCommentBlock, LineCommentBlock> splitFirst() {
+            // every line has always ended up in the first block, keep it that way
             List<String> fdata = new ArrayList<String>();
             List<String> rdata = new ArrayList<String>();
-            boolean first = true;
-            for (Pair<String, String> pair : commentLines) {
-                if (first) {
-                    fdata.add(pair.first() + pair.second());
-                    first= false;
-                } else {
-                    fdata.add(pair.first() + pair.second());
-                }    
+            for (int i = 0; i < spans.length; i += 2) {
+                fdata.add(text.substring(i == 0 ? 0 : spans[i - 1], spans[i + 1]));
             }
 
             return new Pair<LineCommentBlock, LineCommentBlock>(
@@ -162,7 +231,7 @@ public class LineCommentFile {
         }
 
         public class LineCommentParsedFile extends ParsedFile {
-            protected List<Block> fileBlocks = null;
+            protected BlockList fileBlocks = null;
             final protected String line_separator;
 
             /**
@@ -172,7 +241,8 @@ public class LineCommentFile {
              */
             protected LineCommentParsedFile(FileWrapper originalFile) throws IOException {
                 super(originalFile);
-                fileBlocks = new ArrayList(parseBlocks(originalFile));
+                fileBlocks = new BlockList(parseBlocks(originalFile));
+                setOriginalBlocks(fileBlocks);
                 postParse();
                 line_separator = sniffLineSeparator();
             }
@@ -207,17 +277,13 @@ public class LineCommentFile {
             
             
             public List<CommentBlock> getComments() {
-                List<CommentBlock> blocks = new ArrayList<CommentBlock>();
-                for (Block b : fileBlocks) {
-                    if(b instanceof CommentBlock)
-                        blocks.add((CommentBlock) b);
-                }
-                return blocks;
+                return fileBlocks.getComments();
             }
 
             public void insertCommentBlock(String commentText) {
                 CommentBlock cb = createCommentBlock(commentText);
                 cb.addTag(CommentBlock.TOP_COMMENT_BLOCK);
+                markDirty();
                 fileBlocks.add(0, cb);
                 adjustBlockAtIndex(1);
             }
@@ -235,25 +301,13 @@ public class LineCommentFile {
 
             public void remove(CommentBlock cb) {
                 //TODO  take care of comments which have non-comment text before the comment.
-                fileBlocks.remove(cb);
+                if (fileBlocks.remove(cb)) {
+                    markDirty();
+                }
             }
 
-            public void writeTo(FileWrapper fw) throws IOException {
-                try {
-                    if (fw.canWrite()) {
-                        // TODO this is dangerous: a crash before close will destroy the file!
-                        fw.delete();
-                        fw.open(FileWrapper.OpenMode.WRITE);
-                        for (Block block : fileBlocks) {
-                            block.write(fw);
-                        }
-
-                    } else {
-                        LOGGER.info("Skipping file " + fw + " because is is not writable");
-                    }
-                } finally {
-                    fw.close();
-                }
+            public boolean writeTo(FileWrapper fw) throws IOException {
+                return writeBlocks(fw, fileBlocks);
             }
 
             @Override
@@ -295,9 +349,11 @@ public class LineCommentFile {
         StringBuilder sb = new StringBuilder();
         fw.open(FileWrapper.OpenMode.READ);
         try {
-            List<String> fileAsLines = ToolUtil.splitToLines(fw.readAsString());
+            String fileContents = fw.readAsString();
+            List<String> fileAsLines = ToolUtil.splitToLines(fileContents);
 
             for (String line : fileAsLines) {
+                ProcessingBudget.check();
                 if (inComment) {
                     if (startsWith(line, prefixes)) {
                         //previous line is also comment, so append to block
@@ -324,9 +380,12 @@ public class LineCommentFile {
             }
             //add the last block
             if (sb.length() != 0) {
-                if (inComment)
-                    result.add(new LineCommentBlock(prefixes[0], sb.toString(), new HashSet<String>()));
-                else
+                if (inComment) {
+                    // in the head of a large file, the comment may go on in the tail, so leave it there
+                    if (result.isEmpty() || !fw.isPartiallyRead()
+                            || !fw.endHeadAt(fileContents, fileContents.length() - sb.length()))
+                        result.add(new LineCommentBlock(prefixes[0], sb.toString(), new HashSet<String>()));
+                } else
                     result.add(new PlainBlock(sb.toString()));
             }
             return result;
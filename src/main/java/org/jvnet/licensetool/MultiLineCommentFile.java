@@ -42,12 +42,15 @@ package org.jvnet.licensetool;
 
 import org.jvnet.licensetool.file.*;
 import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.util.ProcessingBudget;
 import org.jvnet.licensetool.util.ToolUtil;
 
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.io.IOException;
 import java.util.regex.Pattern;
@@ -57,14 +60,23 @@ import java.util.regex.Pattern;
  */
 public class MultiLineCommentFile {
     public static class MultiLineCommentBlock extends CommentBlock {
-        protected Pair<String, String> commentStart = null;
-        protected List<Pair<String, String>> commentLines = new ArrayList<Pair<String, String>>();
-        protected Pair<String, String> commentEnd = null;
+        // contents() of the block: the start line, the lines in between and the end line.
+        private String text;
+        // from and to offsets in text of the comment part of each line, pairwise.
+        // The first pair is after the start marker, the last one before the end marker.
+        private int[] spans;
+        // comment() as last rendered, null until then and after replace()
+        private String comment = null;
 
         final String prefix;
         final String start;
         final String end;
 
+        // comment syntax and text -> block created for them, never handed out itself
+        private static final Map<Pair<String, String>, MultiLineCommentBlock> createdBlocks =
+                new HashMap<Pair<String, String>, MultiLineCommentBlock>();
+        private static final int MAX_CREATED_BLOCKS = 64;
+
         public MultiLineCommentBlock(String start, String end, String prefix, final String multiLineComment, Set<String> tags) {
             super(tags);
             this.start = start;
@@ -81,100 +93,156 @@ public class MultiLineCommentFile {
             parse(multiLineComment);
         }
 
+        // a copy of other, with tags of its own
+        private MultiLineCommentBlock(MultiLineCommentBlock other) {
+            super(new HashSet<String>());
+            this.start = other.start;
+            this.end = other.end;
+            this.prefix = other.prefix;
+            // neither is changed in place
+            text = other.text;
+            spans = other.spans;
+        }
+
         public static CommentBlock createCommentBlock(String start, String end, String prefix,
                                                       final String commentText, final String line_separator) {
-            final List<String> commentTextBlock = new ArrayList<String>();
-            List<String> dataAsLines = ToolUtil.splitToLines(commentText);
-            for (String str : dataAsLines) {
-                commentTextBlock.add(prefix + ToolUtil.covertLineBreak(str,line_separator));
+            return createCommentBlock(start, end, prefix, commentText, line_separator, end);
+        }
+
+        /**
+         * Creates a block for commentText whose last line is endLine.  Most files get
+         * the same header, so the block is only built the first time and copied after that.
+         */
+        public static CommentBlock createCommentBlock(String start, String end, String prefix,
+                                                      final String commentText, final String line_separator,
+                                                      String endLine) {
+            Pair<String, String> key = new Pair<String, String>(
+                    start + "\n" + end + "\n" + prefix + "\n" + line_separator + "\n" + endLine, commentText);
+            MultiLineCommentBlock block;
+            synchronized (createdBlocks) {
+                block = createdBlocks.get(key);
+            }
+            if (block == null) {
+                final List<String> commentTextBlock = new ArrayList<String>();
+                List<String> dataAsLines = ToolUtil.splitToLines(commentText);
+                for (String str : dataAsLines) {
+                    commentTextBlock.add(prefix + ToolUtil.covertLineBreak(str,line_separator));
+                }
+                commentTextBlock.add(0, start + line_separator);
+                commentTextBlock.add(commentTextBlock.size(), endLine);
+                block = new MultiLineCommentBlock(start, end, prefix, commentTextBlock, new HashSet<String>());
+                synchronized (createdBlocks) {
+                    if (createdBlocks.size() >= MAX_CREATED_BLOCKS) {
+                        createdBlocks.clear();
+                    }
+                    createdBlocks.put(key, block);
+                }
             }
-            commentTextBlock.add(0, start + line_separator);
-            commentTextBlock.add(commentTextBlock.size(), end);
-            return  new MultiLineCommentBlock(start, end, prefix, commentTextBlock, new HashSet<String>());
+            return new MultiLineCommentBlock(block);
         }
 
         public Block replace(String content) {
-            commentStart = new Pair<String, String>(commentStart.first(), "");
-            commentLines.clear();
+            markModified();
+            // keep the start and end markers, with nothing else on their lines
+            String startMarker = text.substring(0, spans[0]);
+            String endMarker = text.substring(spans[spans.length - 1]);
             List<String> parsedData = ToolUtil.splitToLines(content);
+            StringBuilder sb = new StringBuilder(startMarker);
+            int[] s = new int[2 * (parsedData.size() + 2)];
+            s[0] = s[1] = sb.length();
+            int i = 2;
             for (String str : parsedData) {
-                commentLines.add(new Pair<String, String>(prefix, str));
+                sb.append(prefix);
+                s[i++] = sb.length();
+                sb.append(str);
+                s[i++] = sb.length();
             }
-            commentEnd = new Pair<String, String>("", commentEnd.second());
+            s[i] = s[i + 1] = sb.length();
+            sb.append(endMarker);
+            text = sb.toString();
+            spans = s;
+            comment = null;
             return this;
         }
 
         public String contents() {
-            StringBuilder sb = new StringBuilder();
-            sb.append(commentStart.first());
-            sb.append(commentStart.second());
-            for(Pair<String,String> line: commentLines) {
-                sb.append(line.first());
-                sb.append(line.second());
-            }
-            sb.append(commentEnd.first());
-            sb.append(commentEnd.second());
-            return sb.toString();
+            return text;
         }
 
         public String comment() {
-            StringBuilder sb = new StringBuilder();
-            if(!commentStart.second().trim().equals(""))
-                sb.append(commentStart.second());
-            for(Pair<String,String> line: commentLines) {
-                sb.append(line.second());
+            if (comment == null) {
+                StringBuilder sb = new StringBuilder();
+                int last = spans.length - 2;
+                for (int i = 0; i <= last; i += 2) {
+                    // the text around the markers only counts if it is not blank
+                    if ((i == 0 || i == last) && isBlank(spans[i], spans[i + 1])) {
+                        continue;
+                    }
+                    sb.append(text, spans[i], spans[i + 1]);
+                }
+                comment = sb.toString();
+            }
+            return comment;
+        }
+
+        private boolean isBlank(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (text.charAt(i) > ' ') {
+                    return false;
+                }
             }
-            if(!commentEnd.first().trim().equals(""))
-                sb.append(commentEnd.first());            
-            return sb.toString();
+            return true;
         }
 
         private void parse(List<String> data) {
+            StringBuilder sb = new StringBuilder();
+            int[] s = new int[2 * Math.max(data.size(), 2)];
+            int n = 2;
+            // the end line, once seen: text before the end marker, and from it on
+            String endText = "";
+            String endMarker = "";
             for (int i = 0; i < data.size(); i++) {
                 String str = data.get(i);
                 if (i == 0) {
                     int index = str.indexOf(start);
                     if (index < 0) {
-//                        String startCommmentPrefix = start;
-//                        String startCommentSuffix = str;
-//                        commentStart = new Pair<String, String>(startCommmentPrefix, startCommentSuffix);
                         throw new RuntimeException("Cooment block does n't caontain start marker " + start);
 
                     } else {
-                        String startCommmentPrefix = str.substring(0, index + start.length());
-                        String startCommentSuffix;
+                        sb.append(str, 0, index + start.length());
+                        s[0] = sb.length();
                         String rest = str.substring(index + start.length());
                         int endindex = rest.indexOf(end);
                         if (endindex >= 0) {
-                            startCommentSuffix = rest.substring(0, endindex);
-                            commentEnd = new Pair<String, String>("", rest.substring(endindex));
+                            sb.append(rest, 0, endindex);
+                            endMarker = rest.substring(endindex);
                         } else {
-                            startCommentSuffix = rest;
+                            sb.append(rest);
                         }
-                        commentStart = new Pair<String, String>(startCommmentPrefix, startCommentSuffix);
+                        s[1] = sb.length();
                     }
                 } else if (i == (data.size() - 1)) {
                     int index = str.indexOf(end);
                     if (index < 0) {
-//                        String endCommmentPrefix = str;
-//                        String endCommentSuffix = end;
-//                        commentEnd = new Pair<String,String>(endCommmentPrefix,endCommentSuffix);
                         throw new RuntimeException("Comment block does n't contain end marker " + end);
                     } else {
-                        commentEnd = new Pair<String, String>(str.substring(0, index),
-                                str.substring(index));
+                        endText = str.substring(0, index);
+                        endMarker = str.substring(index);
                     }
                 } else {
                     int index = str.indexOf(prefix);
-                    if (index < 0) {
-                        commentLines.add(new Pair<String, String>("", str));
-
-                    } else {
-                        commentLines.add(new Pair<String, String>(str.substring(0, index + prefix.length()),
-                                str.substring(index + prefix.length())));
-                    }
+                    sb.append(str, 0, index < 0 ? 0 : index + prefix.length());
+                    s[n++] = sb.length();
+                    sb.append(str, index < 0 ? 0 : index + prefix.length(), str.length());
+                    s[n++] = sb.length();
                 }
             }
+            s[n++] = sb.length();
+            sb.append(endText);
+            s[n++] = sb.length();
+            sb.append(endMarker);
+            text = sb.toString();
+            spans = s;
         }
 
         private void parse(String data) {
@@ -197,7 +265,7 @@ public class MultiLineCommentFile {
         }
 
         public class BlockCommentParsedFile extends ParsedFile {
-            protected List<Block> fileBlocks = null;
+            protected BlockList fileBlocks = null;
             protected final String line_separator;
             /**
              * calls postParse() after the file is parsed in to blocks.
@@ -206,7 +274,8 @@ public class MultiLineCommentFile {
              */
             protected BlockCommentParsedFile(FileWrapper originalFile) throws IOException {
                 super(originalFile);
-                fileBlocks = new ArrayList(parseBlocks(originalFile));
+                fileBlocks = new BlockList(parseBlocks(originalFile));
+                setOriginalBlocks(fileBlocks);
                 postParse();
                 line_separator = sniffLineSeparator();
             }
@@ -240,17 +309,13 @@ public class MultiLineCommentFile {
             }
 
             public List<CommentBlock> getComments() {
-                List<CommentBlock> blocks = new ArrayList<CommentBlock>();
-                for (Block b : fileBlocks) {
-                    if(b instanceof CommentBlock)
-                        blocks.add((CommentBlock) b);
-                }
-                return blocks;
+                return fileBlocks.getComments();
             }
 
             public void insertCommentBlock(String commentText) {
                 CommentBlock cb = createCommentBlock(commentText);
                 cb.addTag(CommentBlock.TOP_COMMENT_BLOCK);
+                markDirty();
                 fileBlocks.add(0, cb);
                 adjustBlockAtIndex(1);
             }
@@ -272,30 +337,18 @@ public class MultiLineCommentFile {
             }
 
             public void remove(CommentBlock cb) {
-                fileBlocks.remove(cb);
+                if (fileBlocks.remove(cb)) {
+                    markDirty();
+                }
             }
 
-            public void writeTo(FileWrapper fw) throws IOException {
-                   try {
-                    if (fw.canWrite()) {
-                        // TODO this is dangerous: a crash before close will destroy the file!
-                        fw.delete();
-                        fw.open(FileWrapper.OpenMode.WRITE);
-                        for (Block block : fileBlocks) {
-                            block.write(fw);
-                        }
-
-                    } else {
-                        LOGGER.info("Skipping file " + fw + " because is is not writable");
-                    }
-                } finally {
-                    fw.close();
-                }
+            public boolean writeTo(FileWrapper fw) throws IOException {
+                return writeBlocks(fw, fileBlocks);
             }
 
             @Override
             public boolean isPreamble(String line) {
-                if( preamblePattern != null && line.matches(preamblePattern)){
+                if( preamblePattern != null && Pattern.matches(preamblePattern, ProcessingBudget.guard(line))){
                     return true;
                 }
                 return false;
@@ -344,6 +397,7 @@ public class MultiLineCommentFile {
             String plainString;
 
             while (true) {
+                ProcessingBudget.check();
                 commentStart = fileContents.indexOf(start, curIndex);
                 if (commentStart != -1) {
                     if (commentStart != curIndex) {
@@ -358,6 +412,10 @@ public class MultiLineCommentFile {
                         parsedBlocks.add(new MultiLineCommentBlock(start, end, prefix, commentString, new HashSet<String>()));
                         curIndex = commentEnd + end.length();
                     } else {
+                        // in the head of a large file, the comment may end in the tail
+                        if (fw.isPartiallyRead() && commentStart > 0 && fw.endHeadAt(fileContents, commentStart)) {
+                            break;
+                        }
                         // no end comment, though unusual
                         plainString = fileContents.substring(curIndex);
                         parsedBlocks.add(new PlainBlock(plainString));
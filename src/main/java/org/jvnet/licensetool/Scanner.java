@@ -41,13 +41,24 @@
 package org.jvnet.licensetool;
 
 import org.jvnet.licensetool.file.*;
+import org.jvnet.licensetool.generic.Pair;
 import org.jvnet.licensetool.generic.UnaryBooleanFunction;
+import org.jvnet.licensetool.util.ProcessingBudget;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -58,22 +69,187 @@ public class Scanner {
     //run with dryrun option to check if all the files are recognized.
     private final boolean dryrun;
     private final List<String> patternsToSkip;
+    private final long maxFileSize;
+    private final long maxFileTime;
+    // files larger than this are only parsed up to HEADER_REGION bytes
+    private final long streamThreshold;
+
+    private static final long HEADER_REGION = 256 * 1024;
 
     private VCS vcs;
 
+    // VCS lookups run on this many threads while files are read and parsed
+    private static final int VCS_THREADS = 4;
+    // lookups waiting for a thread; beyond this the scanning thread does them itself
+    private static final int VCS_QUEUE = 1024;
+    // null unless the modify action will need the years
+    private ExecutorService yearLookups = null;
+    // file -> year lookup started when its directory was listed
+    private final Map<File, Future<String>> pendingYears = new HashMap<File, Future<String>>();
+    // file -> its parser, found when its directory was listed
+    private final Map<File, FileParser> pendingParsers = new HashMap<File, FileParser>();
+    // take the files from the VCS instead of listing directories
+    private final boolean useVcsFiles;
+    // files listed by the VCS are scanned in batches of this many
+    private static final int VCS_BATCH = 64;
+    // null unless a cache directory was given
+    private DirectoryCache directoryCache = null;
+    private final String cacheDir;
+    private final boolean trustDirTimes;
+    // null unless cacheVerdicts() was called
+    private VerdictTree verdicts = null;
+    private final boolean validate;
+    private final boolean useLastModified;
+    private final String remoteCache;
+    // null unless cacheVerdicts() found a store
+    private ContentCache contentCache = null;
+    // file -> key of its contents, with the verdict if it was in the cache
+    private final Map<File, Pair<String, ContentCache.Verdict>> pendingVerdicts =
+            new HashMap<File, Pair<String, ContentCache.Verdict>>();
+    private int filesFromCache = 0;
+    private int filesChangedFromCache = 0;
+    // only looking at the headers: parse files side by side, and go on past unrecognized ones
+    private final boolean discover;
+    // null unless discover; parses the files and calls the action, which must be thread safe
+    private ThreadPoolExecutor parsers = null;
+
     public Scanner(LicenseTool.Arguments args, final List<File> files) {
         this.roots = files;
-        this.dryrun = args.dryrun();
+        this.discover = args.discover();
+        // discover has to parse the files to see their headers, but writes nothing
+        this.dryrun = args.dryrun() && !discover;
+        this.maxFileSize = args.maxfilesize();
+        this.maxFileTime = args.maxfiletime();
+        // Validation has to see the whole file, only stream when modifying or discovering.
+        this.streamThreshold = args.validate() && !discover ? 0 : args.streamthreshold();
+        this.useVcsFiles = args.usevcsfiles();
         if (!args.vcs().equals("")) {
             vcs = VCS.valueOf(args.vcs());
         } else {
             List<File> roots1 = args.roots();
             vcs = roots1.size() > 0 ? VCS.sniffVCS(roots1.get(0)) : null;
         }
+        if (vcs != null && args.uselastmodified() && !args.validate() && !args.dryrun() && !discover) {
+            yearLookups = new ThreadPoolExecutor(VCS_THREADS, VCS_THREADS, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(VCS_QUEUE), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "VCS lookup");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+
+        this.validate = args.validate();
+        this.useLastModified = args.uselastmodified();
+        this.remoteCache = args.remotecache();
+        this.cacheDir = args.cachedir();
+        this.trustDirTimes = args.trustdirtimes();
+        if (!cacheDir.equals("")) {
+            directoryCache = DirectoryCache.load(new File(cacheDir, "directories"));
+        }
+
+        if (discover) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            // when the queue is full the scanning thread parses the file itself
+            parsers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "Parser");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
 
         patternsToSkip = new ArrayList<String>();
     }
 
+    /**
+     * Start looking up the last modified years of the files in the background,
+     * so that the VCS works while the files before them are parsed, and look up
+     * their content-addressed verdicts in one batch.  Only files the recognizer
+     * has a parser for, other than a binary one, are looked up; their parsers
+     * are kept for doScan.
+     */
+    private void prefetch(List<File> files, FileRecognizer recognizer) {
+        if (yearLookups == null && contentCache == null) {
+            return;
+        }
+        List<File> parsed = new ArrayList<File>(files.size());
+        for (File f : files) {
+            FileParser parser = recognizer.getParser(new FileWrapper(f));
+            if (parser != null) {
+                pendingParsers.put(f, parser);
+                if (!(parser instanceof FileParserFactory.BinaryFileParser)) {
+                    parsed.add(f);
+                }
+            }
+        }
+        files = parsed;
+        if (yearLookups != null) {
+            for (final File f : files) {
+                if (!pendingYears.containsKey(f)) {
+                    pendingYears.put(f, yearLookups.submit(new Callable<String>() {
+                        public String call() {
+                            return vcs.getLastModifiedYear(f.toString());
+                        }
+                    }));
+                }
+            }
+        }
+        if (contentCache != null) {
+            List<File> unknown = new ArrayList<File>();
+            for (File f : files) {
+                // the errors of files that didn't change are known without reading them
+                if (verdicts == null || verdicts.lookup(f) == null) {
+                    unknown.add(f);
+                }
+            }
+            pendingVerdicts.putAll(contentCache.lookup(unknown));
+        }
+    }
+
+    /**
+     * Remember the validation errors of each file in the cache directory, if there
+     * is one, and repeat them for files that didn't change instead of validating
+     * them again.  config is everything else the errors depend on.  Call it after
+     * the directories to skip were added.
+     */
+    public void cacheVerdicts(String config) {
+        if (dryrun) {
+            return;
+        }
+        if (validate && !cacheDir.equals("")) {
+            // which files are scanned also decides what is replayed for a directory
+            verdicts = VerdictTree.load(new File(cacheDir, "verdicts"),
+                    config + "\n" + patternsToSkip + "\n" + useVcsFiles, trustDirTimes);
+        }
+        // what modify does then also depends on the history of each file
+        if (validate || !useLastModified) {
+            ContentStore local = cacheDir.equals("") ? null : new DirectoryContentStore(new File(cacheDir, "content"));
+            // what modify writes into files is never taken from a shared store that anyone can fill
+            ContentStore remote = remoteCache.equals("") || !validate ? null : new HttpContentStore(remoteCache);
+            if (local != null || remote != null) {
+                contentCache = new ContentCache(local, remote, config, maxFileSize);
+            }
+        }
+    }
+
+    /**
+     * Number of files whose verdict came from the content cache instead of the action.
+     */
+    public int getFilesFromCache() {
+        return filesFromCache;
+    }
+
+    /**
+     * Number of files the modify action didn't see that were changed from the content cache.
+     */
+    public int getFilesChangedFromCache() {
+        return filesChangedFromCache;
+    }
+
     /**
      * Add a pattern that defines a directory to skip.  We only need really simple
      * patterns: just a single name that must match a component of a directory name
@@ -99,57 +275,303 @@ public class Scanner {
      */
     public boolean scan(final FileRecognizer recognizer, final Scanner.Action action) {
         boolean result = true;
+        List<File> rootFiles = new ArrayList<File>();
+        for (File file : roots) {
+            if (file.isFile()) {
+                rootFiles.add(file);
+            }
+        }
+        prefetch(rootFiles, recognizer);
         for (File file : roots) {
-            result = doScan(file, recognizer, action);
+            if (useVcsFiles && vcs != null && file.isDirectory()) {
+                result = scanVcsFiles(file, recognizer, action);
+            } else {
+                result = doScan(file, recognizer, action);
+            }
             if (!result)
                 break;
         }
+        if (parsers != null) {
+            parsers.shutdown();
+            try {
+                parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (yearLookups != null) {
+            yearLookups.shutdownNow();
+            try {
+                yearLookups.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pendingYears.clear();
+        }
+        pendingParsers.clear();
+        pendingVerdicts.clear();
+        if (vcs != null) {
+            vcs.flush();
+        }
+        if (directoryCache != null) {
+            directoryCache.save(result);
+        }
+        if (verdicts != null) {
+            verdicts.save(result);
+        }
         return result;
     }
 
+    /**
+     * Scan the files the VCS has under root, without listing any directory.
+     * Falls back to listing directories if the VCS can't list the files.
+     */
+    private boolean scanVcsFiles(final File root, final FileRecognizer recognizer, final Scanner.Action action) {
+        final List<File> batch = new ArrayList<File>();
+        final boolean[] result = {true};
+        final int[] listed = {0};
+        try {
+            vcs.listFiles(root, new UnaryBooleanFunction<File>() {
+                private File lastDir = null;
+                private boolean skipLastDir = false;
+
+                public boolean evaluate(File f) {
+                    listed[0]++;
+                    File dir = f.getParentFile();
+                    if (!dir.equals(lastDir)) {
+                        lastDir = dir;
+                        skipLastDir = skipDirectory(dir);
+                        if (!skipLastDir && verdicts != null) {
+                            verdicts.enterDirectory(dir);
+                        }
+                    }
+                    if (!skipLastDir) {
+                        batch.add(f);
+                        if (batch.size() == VCS_BATCH) {
+                            result[0] = scanBatch(batch, recognizer, action);
+                        }
+                    }
+                    return result[0];
+                }
+            });
+        } catch (IOException exc) {
+            if (listed[0] == 0) {
+                LOGGER.warning("Could not get the files in " + root + " from " + vcs
+                        + ", listing directories instead: " + exc);
+                return doScan(root, recognizer, action);
+            }
+            LOGGER.warning("Exception while listing files in " + root + ": " + exc);
+            return false;
+        }
+        return result[0] && scanBatch(batch, recognizer, action);
+    }
+
+    private boolean scanBatch(final List<File> batch, final FileRecognizer recognizer, final Scanner.Action action) {
+        List<File> files = new ArrayList<File>(batch.size());
+        for (File f : batch) {
+            // files deleted since the last commit are still in the VCS
+            if (f.isFile()) {
+                files.add(f);
+            }
+        }
+        batch.clear();
+        prefetch(files, recognizer);
+        for (File f : files) {
+            if (!doScan(f, false, recognizer, action)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The entries of dir, each with true if it is a directory.
+     */
+    private List<Pair<File, Boolean>> listDirectory(final File dir) {
+        if (directoryCache != null) {
+            return directoryCache.list(dir);
+        }
+        List<Pair<File, Boolean>> entries = new ArrayList<Pair<File, Boolean>>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                entries.add(new Pair<File, Boolean>(f, f.isDirectory()));
+            }
+        }
+        return entries;
+    }
+
     private boolean doScan(final File file, final FileRecognizer recognizer, final Scanner.Action action) {
+        return doScan(file, file.isDirectory(), recognizer, action);
+    }
+
+    private boolean doScan(final File file, final boolean isDirectory,
+                           final FileRecognizer recognizer, final Scanner.Action action) {
         boolean result = true;
-        if (file.isDirectory()) {
+        if (isDirectory) {
             if (!skipDirectory(file)) {
-                for (File f : file.listFiles()) {
-                    result = doScan(f, recognizer, action);
+                // an unchanged subtree is not even listed
+                if (verdicts != null) {
+                    if (verdicts.replaySubtree(file)) {
+                        return true;
+                    }
+                    verdicts.enterDirectory(file);
+                }
+                List<Pair<File, Boolean>> entries = listDirectory(file);
+                List<File> files = new ArrayList<File>();
+                List<String> subdirs = new ArrayList<String>();
+                for (Pair<File, Boolean> entry : entries) {
+                    if (!entry.second()) {
+                        files.add(entry.first());
+                    } else if (!skipDirectory(entry.first())) {
+                        subdirs.add(entry.first().getName());
+                    }
+                }
+                if (verdicts != null) {
+                    verdicts.addSubdirectories(file, subdirs);
+                }
+                prefetch(files, recognizer);
+                for (Pair<File, Boolean> entry : entries) {
+                    result = doScan(entry.first(), entry.second(), recognizer, action);
                     if (!result)
                         break;
                 }
+                if (result && verdicts != null) {
+                    verdicts.leaveDirectory(file);
+                }
             }
         } else {
-            final FileWrapper fw = new FileWrapper(file);
-            try {
-                FileParser parser = recognizer.getParser(fw);
-                if (parser == null) {
-                    LOGGER.warning("Unrecognized file: " + fw);
-                    if (!dryrun) {
-                        return false;
+            final Pair<String, ContentCache.Verdict> cached = pendingVerdicts.remove(file);
+            final Future<String> year = pendingYears.remove(file);
+            final FileParser parser = pendingParsers.remove(file);
+            if (parsers != null) {
+                parsers.execute(new Runnable() {
+                    public void run() {
+                        scanFile(file, recognizer, action, parser, cached, year);
                     }
+                });
+            } else {
+                result = scanFile(file, recognizer, action, parser, cached, year);
+            }
+        }
+        return result;
+    }
+
+    // knownParser is the parser prefetch() found, or null
+    private boolean scanFile(final File file, final FileRecognizer recognizer, final Scanner.Action action,
+                             final FileParser knownParser, final Pair<String, ContentCache.Verdict> cached,
+                             final Future<String> year) {
+        boolean result = true;
+        final FileWrapper fw = new FileWrapper(file);
+        ProcessingBudget.start(maxFileTime, maxFileSize);
+        try {
+            FileParser parser = knownParser != null ? knownParser : recognizer.getParser(fw);
+            if (parser == null) {
+                LOGGER.warning("Unrecognized file: " + fw);
+                skipVerdict(file);
+                // a dry run or discover goes on past it
+                return dryrun || discover;
+            } else {
+                // only files that are recognized have verdicts to repeat
+                if (verdicts != null) {
+                    String[] errors = verdicts.lookup(file);
+                    if (errors != null) {
+                        for (String error : errors) {
+                            ActionFactory.logValidationError(error, file.toString());
+                        }
+                        return true;
+                    }
+                }
+                if (cached != null && cached.second() != null && replay(file, cached.second())) {
+                    return true;
+                }
+            }
+            if (!dryrun) {
+                if (streamThreshold > 0 && file.length() > streamThreshold) {
+                    LOGGER.fine("Scanner: Parsing only the head of " + fw);
+                    fw.setReadLimit(HEADER_REGION);
                 }
-                if (!dryrun) {
-                    ParsedFile pfile = parser.parseFile(fw);
-                    if (pfile != null) {
-                        pfile.setVCS(vcs);
-                        result = action.evaluate(pfile);
+                long length = file.length();
+                ParsedFile pfile = parser.parseFile(fw);
+                if (pfile != null) {
+                    pfile.setVCS(vcs);
+                    pfile.setLastModifiedYear(year);
+                    result = action.evaluate(pfile);
+                    if (fw.isPartiallyRead() && !discover) {
+                        // discover only looks at the top comment
+                        LOGGER.info("Only the first " + fw.getTailOffset() + " of " + length + " bytes of " + fw
+                                + " were parsed; comments after them were neither checked nor changed");
                     }
                 }
-            } catch (IOException exc) {
-                LOGGER.warning("Exception while processing file " + fw + ": " + exc);
-                exc.printStackTrace();
+                // binary files have no errors
+                List<String> errors = pfile == null ? new ArrayList<String>() : pfile.getValidationErrors();
+                if (verdicts != null) {
+                    verdicts.record(file, errors);
+                }
+                if (cached != null && pfile != null && result && (validate || file.canWrite())) {
+                    contentCache.put(cached.first(), validate ? ContentCache.Verdict.validated(errors)
+                            : ContentCache.Verdict.modified(pfile.getWrittenHead(), pfile.getWrittenTailOffset()));
+                }
+            }
+        } catch (ProcessingBudget.BudgetExceededException exc) {
+            LOGGER.warning("Skipped: too expensive: " + fw + " (" + exc.getMessage() + ")");
+            skipVerdict(file);
+        } catch (StackOverflowError err) {
+            // regular expressions recurse on some inputs
+            LOGGER.warning("Skipped: too expensive: " + fw + " (" + err + ")");
+            skipVerdict(file);
+        } catch (IOException exc) {
+            LOGGER.warning("Exception while processing file " + fw + ": " + exc);
+            exc.printStackTrace();
+            return false;
+        } catch (Exception exc) {
+            LOGGER.warning("Exception while processing file " + fw + ": " + exc);
+            exc.printStackTrace();
+            return false;
+        } finally {
+            ProcessingBudget.clear();
+            fw.close();
+        }
+        return result;
+    }
+
+
+    /**
+     * Repeat what the action did to contents with the same hash: log the same
+     * errors, or write the same head.  Returns false if the file has to be
+     * processed after all.
+     */
+    private boolean replay(final File file, final ContentCache.Verdict verdict) {
+        if (verdict.errors != null) {
+            for (String error : verdict.errors) {
+                ActionFactory.logValidationError(error, file.toString());
+            }
+            if (verdicts != null) {
+                verdicts.record(file, verdict.errors);
+            }
+        } else if (verdict.head != null) {
+            FileWrapper fw = new FileWrapper(file);
+            if (!fw.canWrite() || verdict.tailOffset < 0 || verdict.tailOffset > file.length()) {
                 return false;
-            } catch (Exception exc) {
+            }
+            try {
+                fw.replaceContents(verdict.head, fw, verdict.tailOffset);
+            } catch (IOException exc) {
                 LOGGER.warning("Exception while processing file " + fw + ": " + exc);
-                exc.printStackTrace();
                 return false;
-            } finally {
-                fw.close();
             }
-
+            filesChangedFromCache++;
         }
-        return result;
+        filesFromCache++;
+        return true;
     }
 
+    // files with warnings other than validation errors are checked again next time
+    private void skipVerdict(final File file) {
+        if (verdicts != null) {
+            verdicts.skip(file);
+        }
+    }
 
     private boolean skipDirectory(final File file) {
         for (String pattern : patternsToSkip) {
@@ -50,6 +50,10 @@ public class Tags {
     public static final String COPYRIGHT_BLOCK_TAG = "CopyrightBlock";
     public static final String OWN_COPYRIGHT_TAG = "OwnCopyright";
     public static final String CORRECT_COPYRIGHT_TAG = "CorrectCopyright";
+    // followed by the id of the license found in the block, see LicenseLibrary
+    public static final String LICENSE_TAG_PREFIX = "License:";
+    // followed by the name of the approved copyright template the block matches
+    public static final String TEMPLATE_TAG_PREFIX = "Template:";
     public static final String JAVA_FORMAT_TAG = "JavaFormat";
     public static final String JAVA_LINE_FORMAT_TAG = "JavaLineFormat";
     public static final String XML_FORMAT_TAG = "XmlFormat";
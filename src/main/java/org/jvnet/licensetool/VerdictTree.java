@@ -0,0 +1,458 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool;
+
+import org.jvnet.licensetool.util.ToolUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Validation errors of each file, saved between runs as a tree of directories.
+ * A file whose size and modification time are the same as when it was validated
+ * gets the same errors again without being read.
+ * <p>
+ * Each directory node has a hash over the names, sizes, times and errors of its
+ * files and the hashes of its subdirectories, so a change anywhere changes the
+ * hashes of all the directories above it.  The tree is only written again if the
+ * hash of one of its roots changed.
+ * <p>
+ * If directory times are trusted, the files of a directory whose time didn't change
+ * are not even looked at.  A directory that was scanned to the end, and whose
+ * subdirectories all are like that too, is skipped as a whole when neither its
+ * time nor that of any directory below it changed: its saved errors are logged
+ * without listing it, and only the directories are looked at.  This misses files
+ * edited in place, which only changes the time of the file, so it is off by default.
+ */
+class VerdictTree {
+    private static final int MAGIC = 0x4c545654;
+    private static final int VERSION = 2;
+
+    // files and directories changed this soon before they were looked at may
+    // change again without their time changing, so they are not trusted
+    private static final long RACY_MILLIS = 2000;
+
+    private static class Leaf {
+        final long length;
+        final long lastModified;
+        final String[] errors;
+
+        Leaf(long length, long lastModified, String[] errors) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.errors = errors;
+        }
+    }
+
+    private static class Node {
+        long lastModified;
+        // false if some file of the directory has no leaf
+        boolean complete = true;
+        // true once all the files and subdirectories were scanned
+        boolean finished = false;
+        byte[] hash = new byte[0];
+        final Map<String, Leaf> files = new HashMap<String, Leaf>();
+        // names of the subdirectories that are scanned
+        final Set<String> dirs = new TreeSet<String>();
+    }
+
+    private final File file;
+    private final boolean trustDirectoryTimes;
+    private byte[] config;
+    // absolute path of the directory -> node, as loaded
+    private final Map<String, Node> saved = new HashMap<String, Node>();
+    // absolute path of the directory -> node, for the directories seen in this run
+    private final Map<String, Node> visited = new HashMap<String, Node>();
+    // directories whose files are replayed without looking at them
+    private final Set<String> trusted = new HashSet<String>();
+    // absolute path of a directory -> whether it and all below it are unchanged
+    private final Map<String, Boolean> unchanged = new HashMap<String, Boolean>();
+
+    /**
+     * Reads the tree saved in file.  config is everything else the errors depend on,
+     * like the copyright template; if it changed the saved tree is dropped.
+     */
+    static VerdictTree load(File file, String config, boolean trustDirectoryTimes) {
+        VerdictTree tree = new VerdictTree(file, trustDirectoryTimes);
+        tree.config = sha1(config);
+        if (!file.isFile()) {
+            return tree;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return tree;
+                }
+                byte[] savedConfig = new byte[in.readInt()];
+                in.readFully(savedConfig);
+                if (!Arrays.equals(savedConfig, tree.config)) {
+                    return tree;
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    String path = in.readUTF();
+                    Node node = new Node();
+                    node.lastModified = in.readLong();
+                    node.complete = in.readBoolean();
+                    node.finished = in.readBoolean();
+                    node.hash = new byte[in.readInt()];
+                    in.readFully(node.hash);
+                    for (int dirs = in.readInt(); dirs > 0; dirs--) {
+                        node.dirs.add(in.readUTF());
+                    }
+                    for (int files = in.readInt(); files > 0; files--) {
+                        String name = in.readUTF();
+                        long length = in.readLong();
+                        long lastModified = in.readLong();
+                        String[] errors = new String[in.readInt()];
+                        for (int i = 0; i < errors.length; i++) {
+                            errors[i] = in.readUTF();
+                        }
+                        node.files.put(name, new Leaf(length, lastModified, errors));
+                    }
+                    tree.saved.put(path, node);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // truncated
+            LOGGER.fine("Could not read " + file + ": " + e);
+            tree.saved.clear();
+        }
+        return tree;
+    }
+
+    private VerdictTree(File file, boolean trustDirectoryTimes) {
+        this.file = file;
+        this.trustDirectoryTimes = trustDirectoryTimes;
+    }
+
+    /**
+     * Called by the scanner for each directory before it lists it.  Only the first
+     * call for a directory counts, the files of the VCS come in any order.
+     */
+    void enterDirectory(File dir) {
+        String path = dir.getAbsolutePath();
+        if (visited.containsKey(path)) {
+            return;
+        }
+        Node node = new Node();
+        node.lastModified = dir.lastModified();
+        if (System.currentTimeMillis() - node.lastModified <= RACY_MILLIS) {
+            node.complete = false;
+        }
+        visited.put(path, node);
+        Node old = saved.get(path);
+        if (trustDirectoryTimes && old != null && old.complete && node.complete
+                && old.lastModified == node.lastModified) {
+            trusted.add(path);
+        }
+    }
+
+    /**
+     * Called by the scanner with the names of the subdirectories of dir it is going to scan.
+     */
+    void addSubdirectories(File dir, List<String> names) {
+        node(dir.getAbsolutePath()).dirs.addAll(names);
+    }
+
+    /**
+     * Called by the scanner once all the files and subdirectories of dir were scanned.
+     */
+    void leaveDirectory(File dir) {
+        Node node = visited.get(dir.getAbsolutePath());
+        if (node != null) {
+            node.finished = true;
+        }
+    }
+
+    /**
+     * If directory times are trusted and dir and all the directories below it were
+     * scanned to the end, with no time changed since, logs the errors of all their
+     * files and returns true.  The scanner then skips dir.
+     */
+    boolean replaySubtree(File dir) {
+        if (!trustDirectoryTimes || !isUnchanged(dir.getAbsolutePath())) {
+            return false;
+        }
+        replay(dir, dir.getAbsolutePath());
+        return true;
+    }
+
+    private boolean isUnchanged(String path) {
+        Boolean known = unchanged.get(path);
+        if (known != null) {
+            return known;
+        }
+        Node old = saved.get(path);
+        boolean result = old != null && old.complete && old.finished;
+        if (result) {
+            long lastModified = new File(path).lastModified();
+            result = lastModified == old.lastModified && System.currentTimeMillis() - lastModified > RACY_MILLIS;
+        }
+        if (result) {
+            for (String sub : old.dirs) {
+                if (!isUnchanged(path + File.separator + sub)) {
+                    result = false;
+                    break;
+                }
+            }
+        }
+        unchanged.put(path, result);
+        return result;
+    }
+
+    // logs the saved errors below dir, whose absolute path is path, and keeps its nodes
+    private void replay(File dir, String path) {
+        Node old = saved.get(path);
+        visited.put(path, old);
+        for (Map.Entry<String, Leaf> e : old.files.entrySet()) {
+            String file = new File(dir, e.getKey()).toString();
+            for (String error : e.getValue().errors) {
+                ActionFactory.logValidationError(error, file);
+            }
+        }
+        for (String sub : old.dirs) {
+            replay(new File(dir, sub), path + File.separator + sub);
+        }
+    }
+
+    /**
+     * The errors found in f when it was last validated, or null if it changed since
+     * or was never validated.
+     */
+    String[] lookup(File f) {
+        String dir = f.getAbsoluteFile().getParent();
+        Node old = saved.get(dir);
+        Leaf leaf = old == null ? null : old.files.get(f.getName());
+        if (leaf == null) {
+            return null;
+        }
+        if (!trusted.contains(dir) && (f.length() != leaf.length || f.lastModified() != leaf.lastModified)) {
+            return null;
+        }
+        node(dir).files.put(f.getName(), leaf);
+        return leaf.errors;
+    }
+
+    /**
+     * Remembers the errors found in f.  Files changed just now are left out.
+     */
+    void record(File f, List<String> errors) {
+        Node node = node(f.getAbsoluteFile().getParent());
+        long lastModified = f.lastModified();
+        if (System.currentTimeMillis() - lastModified <= RACY_MILLIS) {
+            node.complete = false;
+            return;
+        }
+        node.files.put(f.getName(), new Leaf(f.length(), lastModified, errors.toArray(new String[errors.size()])));
+    }
+
+    /**
+     * Called by the scanner for files it could not validate, like unrecognized ones.
+     */
+    void skip(File f) {
+        node(f.getAbsoluteFile().getParent()).complete = false;
+    }
+
+    // the node of a directory seen in this run; roots that are files have none yet
+    private Node node(String dir) {
+        Node node = visited.get(dir);
+        if (node == null) {
+            node = new Node();
+            node.complete = false;
+            visited.put(dir, node);
+        }
+        return node;
+    }
+
+    /**
+     * Hashes the directories bottom up and writes the tree if any hash changed.
+     * After a complete scan only the directories seen in it are kept; otherwise
+     * the rest of the old tree is kept as well.  Failures are logged, a missing
+     * tree only costs time.
+     */
+    void save(boolean complete) {
+        // sorted, so that subdirectories come right after their parent
+        TreeMap<String, Node> nodes = new TreeMap<String, Node>(visited);
+        List<String> paths = new ArrayList<String>(nodes.keySet());
+        boolean changed = false;
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            String path = paths.get(i);
+            Node node = nodes.get(path);
+            node.hash = hash(path, node, nodes);
+            Node old = saved.get(path);
+            if (old == null || !Arrays.equals(old.hash, node.hash) || old.lastModified != node.lastModified
+                    || old.complete != node.complete || old.finished != node.finished) {
+                changed = true;
+            }
+        }
+        if (complete) {
+            changed |= !saved.keySet().equals(nodes.keySet());
+        } else {
+            for (Map.Entry<String, Node> e : saved.entrySet()) {
+                if (!nodes.containsKey(e.getKey())) {
+                    nodes.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        File temp = null;
+        try {
+            file.getParentFile().mkdirs();
+            temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(config.length);
+                out.write(config);
+                out.writeInt(nodes.size());
+                for (Map.Entry<String, Node> e : nodes.entrySet()) {
+                    Node node = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(node.lastModified);
+                    out.writeBoolean(node.complete);
+                    out.writeBoolean(node.finished);
+                    out.writeInt(node.hash.length);
+                    out.write(node.hash);
+                    out.writeInt(node.dirs.size());
+                    for (String dir : node.dirs) {
+                        out.writeUTF(dir);
+                    }
+                    out.writeInt(node.files.size());
+                    for (Map.Entry<String, Leaf> f : node.files.entrySet()) {
+                        Leaf leaf = f.getValue();
+                        out.writeUTF(f.getKey());
+                        out.writeLong(leaf.length);
+                        out.writeLong(leaf.lastModified);
+                        out.writeInt(leaf.errors.length);
+                        for (String error : leaf.errors) {
+                            out.writeUTF(error);
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            ToolUtil.moveOver(temp, file);
+            temp = null;
+        } catch (IOException e) {
+            LOGGER.fine("Could not save " + file + ": " + e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    // hash of the files of node and of its direct subdirectories, which are hashed already
+    private static byte[] hash(String path, Node node, SortedMap<String, Node> nodes) {
+        MessageDigest md = newDigest();
+        for (Map.Entry<String, Leaf> e : new TreeMap<String, Leaf>(node.files).entrySet()) {
+            Leaf leaf = e.getValue();
+            update(md, "F" + e.getKey() + '\u0000' + leaf.length + '\u0000' + leaf.lastModified);
+            for (String error : leaf.errors) {
+                update(md, "E" + error);
+            }
+        }
+        String prefix = path + File.separator;
+        for (Map.Entry<String, Node> e : nodes.tailMap(prefix).entrySet()) {
+            String sub = e.getKey();
+            if (!sub.startsWith(prefix)) {
+                break;
+            }
+            if (sub.indexOf(File.separatorChar, prefix.length()) == -1) {
+                update(md, "D" + sub.substring(prefix.length()));
+                md.update(e.getValue().hash);
+            }
+        }
+        return md.digest();
+    }
+
+    private static void update(MessageDigest md, String s) {
+        try {
+            md.update(s.getBytes("UTF-8"));
+            md.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] sha1(String s) {
+        MessageDigest md = newDigest();
+        update(md, s);
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(VerdictTree.class.getName());
+}
@@ -94,6 +94,19 @@ public abstract class Block {
         return tags.contains(tag);
     }
 
+    /**
+     * Returns the rest of the first tag of the block that starts with prefix,
+     * or null if it has none.
+     */
+    public String getTag(final String prefix) {
+        for (String tag : tags) {
+            if (tag.startsWith(prefix)) {
+                return tag.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
     /**
      * Return whether or not a block has ALL of the listed tags.
      */
@@ -105,6 +118,11 @@ public abstract class Block {
         return true;
     }
 
+    /**
+     * Returns the text of the block as it appears in the file.
+     */
+    public abstract String contents();
+
     /**
      * Write block to FileWrapper.  FileWrapper must be open for writing.
      */
@@ -0,0 +1,201 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.file;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The blocks of a parsed file, made for the edits the tool does on them.
+ * <p>
+ * Blocks added at the front, which is where headers go, are kept apart in
+ * reverse order, so adding them does not shift the rest of the file.  Blocks
+ * are removed by identity, not equals(), and are only marked as removed; they
+ * are taken out all at once the next time the list is read by position.  The
+ * comment blocks are kept in a list of their own, built again only after the
+ * blocks changed.  So a file with thousands of comment blocks, with many of
+ * them removed, still costs time linear in its blocks.
+ * <p>
+ * A block may only be in the list once.
+ */
+public class BlockList extends AbstractList<Block> {
+    // blocks added at the front, the first block last
+    private final ArrayList<Block> head = new ArrayList<Block>();
+    private ArrayList<Block> body;
+    // blocks removed from head or body but still in there, see compact()
+    private IdentityHashMap<Block, Boolean> removed = null;
+    // the blocks in head or body and not removed, once remove(Object) was called
+    private IdentityHashMap<Block, Boolean> members = null;
+    // number of changes, to tell if comments is still right
+    private int edits = 0;
+    private List<CommentBlock> comments = null;
+    private int commentsEdits = -1;
+
+    public BlockList(Collection<? extends Block> blocks) {
+        body = new ArrayList<Block>(blocks);
+    }
+
+    public int size() {
+        return head.size() + body.size() - (removed == null ? 0 : removed.size());
+    }
+
+    public Block get(int index) {
+        compact();
+        return index < head.size() ? head.get(head.size() - 1 - index) : body.get(index - head.size());
+    }
+
+    public Block set(int index, Block block) {
+        compact();
+        Block old;
+        if (index < head.size()) {
+            old = head.set(head.size() - 1 - index, block);
+        } else {
+            old = body.set(index - head.size(), block);
+        }
+        if (members != null) {
+            members.remove(old);
+            members.put(block, Boolean.TRUE);
+        }
+        edits++;
+        return old;
+    }
+
+    public void add(int index, Block block) {
+        // a block removed but not taken out yet must be taken out before it
+        // goes back in, or compact() would drop it again
+        if (index != 0 || (removed != null && removed.containsKey(block))) {
+            compact();
+        }
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (index <= head.size()) {
+            head.add(head.size() - index, block);
+        } else {
+            body.add(index - head.size(), block);
+        }
+        if (members != null) {
+            members.put(block, Boolean.TRUE);
+        }
+        modCount++;
+        edits++;
+    }
+
+    public Block remove(int index) {
+        compact();
+        Block old = index < head.size() ? head.remove(head.size() - 1 - index) : body.remove(index - head.size());
+        if (members != null) {
+            members.remove(old);
+        }
+        modCount++;
+        edits++;
+        return old;
+    }
+
+    /**
+     * Removes block, if it is in the list.
+     */
+    public boolean remove(Object block) {
+        if (members == null) {
+            members = new IdentityHashMap<Block, Boolean>();
+            for (Block b : head) {
+                members.put(b, Boolean.TRUE);
+            }
+            for (Block b : body) {
+                members.put(b, Boolean.TRUE);
+            }
+        }
+        if (members.remove(block) == null) {
+            return false;
+        }
+        if (removed == null) {
+            removed = new IdentityHashMap<Block, Boolean>();
+        }
+        removed.put((Block) block, Boolean.TRUE);
+        modCount++;
+        edits++;
+        return true;
+    }
+
+    /**
+     * The comment blocks, in order.  The list does not change when this one does.
+     */
+    public List<CommentBlock> getComments() {
+        if (commentsEdits != edits) {
+            List<CommentBlock> result = new ArrayList<CommentBlock>();
+            for (Block b : this) {
+                if (b instanceof CommentBlock) {
+                    result.add((CommentBlock) b);
+                }
+            }
+            comments = Collections.unmodifiableList(result);
+            commentsEdits = edits;
+        }
+        return comments;
+    }
+
+    // takes the removed blocks out of head and body
+    private void compact() {
+        if (removed == null || removed.isEmpty()) {
+            return;
+        }
+        ArrayList<Block> h = new ArrayList<Block>(head.size());
+        for (Block b : head) {
+            if (!removed.containsKey(b)) {
+                h.add(b);
+            }
+        }
+        head.clear();
+        head.addAll(h);
+        ArrayList<Block> rest = new ArrayList<Block>(body.size());
+        for (Block b : body) {
+            if (!removed.containsKey(b)) {
+                rest.add(b);
+            }
+        }
+        body = rest;
+        removed.clear();
+    }
+}
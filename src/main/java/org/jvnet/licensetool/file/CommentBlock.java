@@ -64,6 +64,11 @@ public abstract class CommentBlock extends Block {
 
     private Copyright copyright;
 
+    // set once the contents of the block are replaced.
+    private boolean modified = false;
+    // contents() as parsed, kept once the block is modified.
+    private String originalContents;
+
     public void setCopyright(Copyright copyright) {
         this.copyright = copyright;    
     }
@@ -113,6 +118,30 @@ public abstract class CommentBlock extends Block {
 
     public abstract Block replace(String content);
 
+    /**
+     * Subclasses call this when replace() is about to change the contents of the block.
+     */
+    protected void markModified() {
+        if (!modified) {
+            originalContents = contents();
+            modified = true;
+        }
+    }
+
+    /**
+     * Returns contents() as it was when the block was parsed.
+     */
+    public String originalContents() {
+        return modified ? originalContents : contents();
+    }
+
+    /**
+     * Returns true if the contents of the block were replaced after it was parsed.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
     /**
      *
      * @return returns the comment block as a list of strings
@@ -133,8 +162,9 @@ public abstract class CommentBlock extends Block {
      * Return the first string in the block that contains the search string.
      */
     public String find(final String search) {
-        if (contents().contains(search))
-            return contents();
+        String contents = contents();
+        if (contents.contains(search))
+            return contents;
         return null;
     }
 }
@@ -40,7 +40,16 @@
 
 package org.jvnet.licensetool.file;
 
+import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.util.ProcessingBudget;
+import org.jvnet.licensetool.util.ToolUtil;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
@@ -72,6 +81,11 @@ public class FileWrapper implements Closeable {
 
     private FileWrapper.FileState state;
 
+    // If > 0, readAsString() reads at most this many bytes of a larger file.
+    private long readLimit = -1;
+    // Offset of the first byte not returned by readAsString(), or -1 if it read the whole file.
+    private long tailOffset = -1;
+
     /**
      * Create a new FileWrapper for the given File.  Represents the same file in the
      * filesystem as the underlying File object.  getBase() return the FileWrapper
@@ -144,9 +158,47 @@ public class FileWrapper implements Closeable {
         return reader.readLine();
     }
 
+    /**
+     * Limit readAsString() to the first maxBytes bytes of the file, so that only
+     * the head of a very large file is read.  The rest of the file (see getTailOffset())
+     * is expected to be copied over unchanged when the file is rewritten.
+     * A value <= 0 removes the limit.
+     */
+    public void setReadLimit(long maxBytes) {
+        this.readLimit = maxBytes;
+    }
+
+    /**
+     * Returns true if the last readAsString() returned only the head of the file.
+     */
+    public boolean isPartiallyRead() {
+        return tailOffset != -1;
+    }
+
+    /**
+     * Offset of the first byte of the file that the last readAsString() did not read,
+     * or -1 if the whole file was read.
+     */
+    public long getTailOffset() {
+        return tailOffset;
+    }
+
+    public long length() {
+        return file.length();
+    }
+
     public String readAsString() throws IOException {
         if (state != FileWrapper.FileState.OPEN_FOR_READ)
             throw new IOException(file + " is not open for reading");
+        tailOffset = -1;
+        // the limit is on the file, however little of it is read
+        ProcessingBudget.checkLength(file.length());
+        if (readLimit > 0 && file.length() > readLimit) {
+            String head = readHead();
+            if (head != null) {
+                return head;
+            }
+        }
 
         int i;
         StringBuilder fileContents = new StringBuilder();
@@ -158,6 +210,160 @@ public class FileWrapper implements Closeable {
         return fileContents.toString();
     }
 
+    /**
+     * Reads at most readLimit bytes, up to and including the last line feed.
+     * Returns null if that cannot be done, in which case the whole file has to be read.
+     */
+    private String readHead() throws IOException {
+        Charset charset = Charset.defaultCharset();
+        byte[] lf = "\n".getBytes(charset.name());
+        if (lf.length != 1 || lf[0] != '\n') {
+            // can't find line breaks in the raw bytes of this encoding
+            return null;
+        }
+        byte[] buffer = new byte[(int) Math.min(readLimit, Integer.MAX_VALUE)];
+        int count = 0;
+        int n;
+        while (count < buffer.length && (n = fis.read(buffer, count, buffer.length - count)) > 0) {
+            count += n;
+        }
+        int cut = count;
+        while (cut > 0 && buffer[cut - 1] != '\n') {
+            cut--;
+        }
+        if (cut == 0) {
+            // one huge line
+            fis.getChannel().position(0);
+            return null;
+        }
+        tailOffset = cut;
+        return new String(buffer, 0, cut, charset.name());
+    }
+
+    /**
+     * Moves the end of head, as returned by the last readAsString(), back to its
+     * first length characters, so that the rest is copied over with the tail.
+     * Parsers call this so that the head does not end in the middle of a comment.
+     * Returns false, and leaves the head alone, if the bytes of the rest can't be
+     * told because they could not be decoded.
+     */
+    public boolean endHeadAt(String head, int length) throws IOException {
+        if (!isPartiallyRead()) {
+            throw new IllegalStateException(file + " was read whole");
+        }
+        String rest = head.substring(length);
+        if (rest.indexOf('\uFFFD') != -1) {
+            return false;
+        }
+        tailOffset -= rest.getBytes(Charset.defaultCharset().name()).length;
+        return true;
+    }
+
+    /**
+     * Replace the contents of this file with head followed by the bytes of source
+     * starting at sourceOffset.  The bytes of source are copied with
+     * FileChannel.transferTo, without being decoded and encoded again.
+     * <p>
+     * The new contents are written to a temporary file next to this one, synced to
+     * disk and then renamed over this file in one step, so that a crash leaves
+     * either the old or the new contents, never a partial file.  If the rename
+     * fails this file is left alone and the temporary file is kept.  The POSIX
+     * permissions of this file are carried over to the new one.
+     * Source may be this file.  File state must be CLOSED.
+     */
+    public void replaceContents(String head, FileWrapper source, long sourceOffset) throws IOException {
+        if (state != FileWrapper.FileState.CLOSED)
+            throw new IOException(file + " is open, cannot replace its contents");
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("." + file.getName(), ".tmp", dir);
+        boolean done = false;
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                Writer w = new BufferedWriter(new OutputStreamWriter(out));
+                w.write(head);
+                w.flush();
+                FileInputStream in = new FileInputStream(source.file);
+                try {
+                    FileChannel from = in.getChannel();
+                    FileChannel to = out.getChannel();
+                    long position = sourceOffset;
+                    long size = from.size();
+                    while (position < size) {
+                        long n = from.transferTo(position, size - position, to);
+                        if (n <= 0) {
+                            throw new IOException("Unexpected end of " + source + " at " + position);
+                        }
+                        position += n;
+                    }
+                } finally {
+                    in.close();
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (file.exists()) {
+                copyPermissions(file, temp);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                temp.delete();
+            }
+        }
+        try {
+            ToolUtil.moveOver(temp, file);
+        } catch (IOException e) {
+            throw new IOException("Could not rename " + temp + " to " + file + ", which is unchanged: " + e);
+        }
+    }
+
+    /**
+     * Give {@code to} the permissions of {@code from}.  Without POSIX permissions
+     * only the owner's write and execute bits are carried over, so nothing is
+     * opened up to group or others.
+     */
+    private static void copyPermissions(File from, File to) throws IOException {
+        PosixFileAttributeView view =
+                Files.getFileAttributeView(from.toPath(), PosixFileAttributeView.class);
+        if (view != null) {
+            Files.setPosixFilePermissions(to.toPath(), view.readAttributes().permissions());
+            return;
+        }
+        to.setExecutable(from.canExecute(), true);
+        to.setWritable(from.canWrite(), true);
+    }
+
+    /**
+     * Overwrite some bytes of this file in place.  Each patch is a pair of the
+     * position in the file and the bytes to write there; the length of the file
+     * does not change.  File state must be CLOSED.
+     */
+    public void patch(List<Pair<Long, byte[]>> patches) throws IOException {
+        if (state != FileWrapper.FileState.CLOSED)
+            throw new IOException(file + " is open, cannot patch it");
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            for (Pair<Long, byte[]> patch : patches) {
+                if (patch.first() + patch.second().length > channel.size()) {
+                    throw new IOException("Patch at " + patch.first() + " is beyond the end of " + file);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(patch.second());
+                long position = patch.first();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            channel.force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
     /**
      * Write the line to the end of the file, including a newline.
      * File state must be FileState OPEN_FOR_WRITE.
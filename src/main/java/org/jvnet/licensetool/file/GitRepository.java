@@ -0,0 +1,1009 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.file;
+
+import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.generic.UnaryBooleanFunction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the history of a Git repository straight from its .git directory, for
+ * machines where there is no git binary or starting one is expensive.
+ * <p>
+ * Objects are read from loose files and from packs (version 2 .idx files, with
+ * both kinds of deltas); packs and their indexes are memory mapped.  Inflated
+ * objects are kept in a cache of bounded size, so delta chains and trees that
+ * many commits share are not inflated again.
+ * <p>
+ * The history walk gives the same answer as
+ * "git log --name-only --no-renames --format=%ad --date=short": commits are
+ * visited newest first by commit time, merges are skipped, and a path gets the
+ * author year of the first commit that changed it.  The walk stops as soon as
+ * every tracked file has a year.
+ * <p>
+ * Anything this class does not understand is reported as an IOException, and
+ * the caller falls back to the git command.
+ */
+class GitRepository {
+    private static final int OBJ_COMMIT = 1;
+    private static final int OBJ_TREE = 2;
+    private static final int OBJ_OFS_DELTA = 6;
+    private static final int OBJ_REF_DELTA = 7;
+
+    private static final int ID_LENGTH = 20;
+    private static final long CACHE_SIZE = 32 * 1024 * 1024;
+    // git itself never makes longer delta chains; a corrupt pack may loop
+    private static final int MAX_DELTA_DEPTH = 4095;
+    // how far commit times may be out of order before isAncestor() gives up
+    private static final long CLOCK_SLOP = 24 * 60 * 60;
+
+    private final File gitDir;
+    // where objects and shared refs live; not gitDir for linked work trees
+    private final File commonDir;
+    private final List<File> objectDirs = new ArrayList<File>();
+    private final List<Pack> packs = new ArrayList<Pack>();
+    private final ObjectCache cache = new ObjectCache();
+
+    private GitRepository(File gitDir, File commonDir) throws IOException {
+        this.gitDir = gitDir;
+        this.commonDir = commonDir;
+        File config = new File(commonDir, "config");
+        if (config.isFile() && readText(config).toLowerCase().contains("sha256")) {
+            throw new IOException("SHA-256 repositories are not supported");
+        }
+        File objects = new File(commonDir, "objects");
+        objectDirs.add(objects);
+        File alternates = new File(objects, "info/alternates");
+        if (alternates.isFile()) {
+            for (String line : readText(alternates).split("\n")) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    File alt = new File(line);
+                    objectDirs.add(alt.isAbsolute() ? alt : new File(objects, line));
+                }
+            }
+        }
+        for (File dir : objectDirs) {
+            File[] files = new File(dir, "pack").listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File idx : files) {
+                String name = idx.getName();
+                if (name.endsWith(".idx")) {
+                    File pack = new File(idx.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+                    if (pack.isFile()) {
+                        packs.add(new Pack(idx, pack));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the repository of the work tree at root, whose .git is either the
+     * repository directory or a "gitdir:" file pointing to it.
+     */
+    static GitRepository open(File root) throws IOException {
+        File gitDir = new File(root, ".git");
+        if (gitDir.isFile()) {
+            String text = readText(gitDir).trim();
+            if (!text.startsWith("gitdir:")) {
+                throw new IOException("Not a gitdir file: " + gitDir);
+            }
+            gitDir = resolve(root, text.substring("gitdir:".length()).trim());
+        }
+        if (!new File(gitDir, "HEAD").isFile()) {
+            throw new IOException("Not a git directory: " + gitDir);
+        }
+        File commonDir = gitDir;
+        File commonDirFile = new File(gitDir, "commondir");
+        if (commonDirFile.isFile()) {
+            commonDir = resolve(gitDir, readText(commonDirFile).trim());
+        }
+        return new GitRepository(gitDir, commonDir);
+    }
+
+    /**
+     * Returns the commit HEAD points to, or null if there is none yet.
+     */
+    synchronized String resolveHead() throws IOException {
+        return resolveRef("HEAD", 0);
+    }
+
+    private String resolveRef(String name, int depth) throws IOException {
+        if (depth > 5) {
+            throw new IOException("Symbolic ref loop at " + name);
+        }
+        for (File dir : new File[]{gitDir, commonDir}) {
+            File ref = new File(dir, name);
+            if (ref.isFile()) {
+                String value = readText(ref).trim();
+                if (value.startsWith("ref:")) {
+                    return resolveRef(value.substring("ref:".length()).trim(), depth + 1);
+                }
+                return checkId(value);
+            }
+        }
+        File packedRefs = new File(commonDir, "packed-refs");
+        if (packedRefs.isFile()) {
+            for (String line : readText(packedRefs).split("\n")) {
+                if (line.endsWith(" " + name)) {
+                    return checkId(line.substring(0, line.indexOf(' ')));
+                }
+            }
+        }
+        // an unborn branch
+        return null;
+    }
+
+    /**
+     * Paths of the files in the index, or null if the index has sparse
+     * directory entries and so doesn't list every file.
+     */
+    synchronized Set<String> readIndex() throws IOException {
+        final Set<String> paths = new HashSet<String>();
+        boolean complete = readIndex(new UnaryBooleanFunction<String>() {
+            public boolean evaluate(String path) {
+                paths.add(path);
+                return true;
+            }
+        });
+        return complete ? paths : null;
+    }
+
+    /**
+     * Passes the paths of the files in the index to handler, in index order,
+     * until it returns false.  Submodules and sparse directory entries are left
+     * out; returns false if there were sparse directory entries, that is if not
+     * every file was listed.
+     */
+    synchronized boolean readIndex(UnaryBooleanFunction<String> handler) throws IOException {
+        File index = new File(gitDir, "index");
+        boolean complete = true;
+        if (!index.isFile()) {
+            return complete;
+        }
+        ByteBuffer buf = map(index);
+        if (buf.getInt(0) != 0x44495243) { // "DIRC"
+            throw new IOException("Bad index signature in " + index);
+        }
+        int version = buf.getInt(4);
+        if (version < 2 || version > 4) {
+            throw new IOException("Unsupported index version " + version);
+        }
+        int count = buf.getInt(8);
+        int pos = 12;
+        byte[] previous = new byte[0];
+        for (int i = 0; i < count; i++) {
+            int mode = buf.getInt(pos + 24);
+            int flags = buf.getShort(pos + 60) & 0xffff;
+            int start = pos + 62;
+            if (version >= 3 && (flags & 0x4000) != 0) {
+                start += 2;
+            }
+            byte[] name;
+            if (version == 4) {
+                // the name is the end of the previous one with a suffix
+                int[] cursor = {start};
+                long strip = readOffset(buf, cursor);
+                int end = cursor[0];
+                while (buf.get(end) != 0) {
+                    end++;
+                }
+                int keep = previous.length - (int) strip;
+                name = new byte[keep + end - cursor[0]];
+                System.arraycopy(previous, 0, name, 0, keep);
+                getBytes(buf, cursor[0], name, keep, end - cursor[0]);
+                pos = end + 1;
+            } else {
+                int end = start;
+                while (buf.get(end) != 0) {
+                    end++;
+                }
+                name = new byte[end - start];
+                getBytes(buf, start, name, 0, name.length);
+                pos += ((end - pos) + 8) & ~7;
+            }
+            boolean repeated = Arrays.equals(name, previous); // a conflict has several stages
+            previous = name;
+            if ((mode & 0170000) == 0040000) {
+                complete = false;
+            } else if ((mode & 0170000) != 0160000 && !repeated) {
+                if (!handler.evaluate(new String(name, "UTF-8"))) {
+                    break;
+                }
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Returns path -> year of the last change for the history of head, leaving out
+     * the history of exclude if it isn't null.  If wanted isn't null, only those
+     * paths are looked for and the walk ends once they are all found.
+     */
+    synchronized Map<String, String> readYears(String head, String exclude, Set<String> wanted)
+            throws IOException {
+        Map<String, String> years = new HashMap<String, String>();
+        if (wanted != null) {
+            // files only in the index would keep the walk going to the first commit
+            Set<String> inHead = new HashSet<String>();
+            listFiles(parseCommit(head).tree, "", inHead);
+            wanted = new HashSet<String>(wanted);
+            wanted.retainAll(inHead);
+        }
+        Walk walk = new Walk();
+        walk.add(head, false);
+        if (exclude != null) {
+            walk.add(exclude, true);
+        }
+        Commit c;
+        while ((c = walk.next()) != null) {
+            if (c.parents.length > 1) {
+                // git log shows no files for merges
+                continue;
+            }
+            String parentTree = c.parents.length == 0 ? null : walk.get(c.parents[0]).tree;
+            List<String> changed = new ArrayList<String>();
+            diffTrees(parentTree, c.tree, "", changed);
+            for (String path : changed) {
+                if (years.containsKey(path) || (wanted != null && !wanted.remove(path))) {
+                    continue;
+                }
+                years.put(path, c.year);
+            }
+            if (wanted != null && wanted.isEmpty()) {
+                break;
+            }
+        }
+        return years;
+    }
+
+    /**
+     * True if commit is in the history of head.
+     */
+    synchronized boolean isAncestor(String commit, String head) throws IOException {
+        Commit target;
+        try {
+            target = parseCommit(commit);
+        } catch (IOException e) {
+            return false;
+        }
+        Walk walk = new Walk();
+        walk.add(head, false);
+        Commit c;
+        while ((c = walk.next()) != null) {
+            if (c.id.equals(commit)) {
+                return true;
+            }
+            if (c.time < target.time - CLOCK_SLOP) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Commits of a history, newest commit time first, like git log orders them.
+     * Commits reachable from an excluded one are walked but not returned.
+     */
+    private class Walk {
+        private final Map<String, Commit> commits = new HashMap<String, Commit>();
+        private final PriorityQueue<Commit> queue = new PriorityQueue<Commit>(64, new Comparator<Commit>() {
+            public int compare(Commit a, Commit b) {
+                if (a.time != b.time) {
+                    return a.time > b.time ? -1 : 1;
+                }
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+        });
+        private long sequence = 0;
+        // commits in the queue that are not excluded
+        private int wanted = 0;
+
+        Commit get(String id) throws IOException {
+            Commit c = commits.get(id);
+            if (c == null) {
+                c = parseCommit(id);
+                commits.put(id, c);
+            }
+            return c;
+        }
+
+        void add(String id, boolean excluded) throws IOException {
+            Commit c = get(id);
+            if (c.queued) {
+                if (excluded && !c.excluded) {
+                    c.excluded = true;
+                    if (!c.done) {
+                        wanted--;
+                    }
+                }
+                return;
+            }
+            c.excluded = excluded;
+            c.queued = true;
+            c.sequence = sequence++;
+            queue.add(c);
+            if (!excluded) {
+                wanted++;
+            }
+        }
+
+        Commit next() throws IOException {
+            while (wanted > 0) {
+                Commit c = queue.poll();
+                c.done = true;
+                if (!c.excluded) {
+                    wanted--;
+                }
+                for (String parent : c.parents) {
+                    add(parent, c.excluded);
+                }
+                if (!c.excluded) {
+                    return c;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Commit {
+        String id;
+        String tree;
+        String[] parents;
+        // commit time, in seconds
+        long time;
+        // author year in the author's time zone
+        String year;
+        boolean queued;
+        boolean done;
+        boolean excluded;
+        long sequence;
+    }
+
+    private Commit parseCommit(String id) throws IOException {
+        GitObject o = readObject(id);
+        if (o.type != OBJ_COMMIT) {
+            throw new IOException(id + " is not a commit");
+        }
+        Commit c = new Commit();
+        c.id = id;
+        List<String> parents = new ArrayList<String>();
+        String author = null;
+        String committer = null;
+        int pos = 0;
+        byte[] data = o.data;
+        while (pos < data.length && data[pos] != '\n') {
+            int end = pos;
+            while (end < data.length && data[end] != '\n') {
+                end++;
+            }
+            String line = new String(data, pos, end - pos, "UTF-8");
+            if (line.startsWith("tree ")) {
+                c.tree = line.substring(5);
+            } else if (line.startsWith("parent ")) {
+                parents.add(line.substring(7));
+            } else if (line.startsWith("author ")) {
+                author = line;
+            } else if (line.startsWith("committer ")) {
+                committer = line;
+            }
+            pos = end + 1;
+        }
+        if (c.tree == null || committer == null) {
+            throw new IOException("Malformed commit " + id);
+        }
+        c.parents = parents.toArray(new String[parents.size()]);
+        long[] when = parseIdent(committer);
+        c.time = when[0];
+        if (author != null) {
+            when = parseIdent(author);
+        }
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis((when[0] + when[1]) * 1000);
+        c.year = String.valueOf(cal.get(Calendar.YEAR));
+        return c;
+    }
+
+    // "name <email> seconds +hhmm" -> {seconds, offset in seconds}
+    private static long[] parseIdent(String line) throws IOException {
+        int gt = line.lastIndexOf('>');
+        String[] parts = line.substring(gt + 1).trim().split(" ");
+        try {
+            long seconds = Long.parseLong(parts[0]);
+            long offset = 0;
+            if (parts.length > 1 && parts[1].length() == 5) {
+                String tz = parts[1];
+                offset = Integer.parseInt(tz.substring(1, 3)) * 3600 + Integer.parseInt(tz.substring(3, 5)) * 60;
+                if (tz.charAt(0) == '-') {
+                    offset = -offset;
+                }
+            }
+            return new long[]{seconds, offset};
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed ident line: " + line);
+        }
+    }
+
+    private static class TreeEntry {
+        final int mode;
+        final String id;
+
+        TreeEntry(int mode, String id) {
+            this.mode = mode;
+            this.id = id;
+        }
+
+        boolean isTree() {
+            return (mode & 0170000) == 0040000;
+        }
+    }
+
+    // name -> entry, with "/" after the names of trees so a file and a tree of the same name differ
+    private Map<String, TreeEntry> readTree(String id) throws IOException {
+        Map<String, TreeEntry> entries = new LinkedHashMap<String, TreeEntry>();
+        if (id == null) {
+            return entries;
+        }
+        GitObject o = readObject(id);
+        if (o.type != OBJ_TREE) {
+            throw new IOException(id + " is not a tree");
+        }
+        byte[] data = o.data;
+        int pos = 0;
+        while (pos < data.length) {
+            int mode = 0;
+            while (data[pos] != ' ') {
+                mode = mode * 8 + (data[pos++] - '0');
+            }
+            int start = ++pos;
+            while (data[pos] != 0) {
+                pos++;
+            }
+            String name = new String(data, start, pos - start, "UTF-8");
+            pos++;
+            TreeEntry e = new TreeEntry(mode, toHex(data, pos));
+            pos += ID_LENGTH;
+            entries.put(e.isTree() ? name + "/" : name, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Adds the paths under prefix whose entries differ between the trees a and b
+     * (either of them may be null for an empty tree).
+     */
+    private void diffTrees(String a, String b, String prefix, List<String> changed) throws IOException {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Map<String, TreeEntry> before = readTree(a);
+        for (Map.Entry<String, TreeEntry> e : readTree(b).entrySet()) {
+            TreeEntry old = before.remove(e.getKey());
+            TreeEntry now = e.getValue();
+            if (old != null && old.mode == now.mode && old.id.equals(now.id)) {
+                continue;
+            }
+            if (now.isTree()) {
+                diffTrees(old == null ? null : old.id, now.id, prefix + e.getKey(), changed);
+            } else {
+                changed.add(prefix + e.getKey());
+            }
+        }
+        for (Map.Entry<String, TreeEntry> e : before.entrySet()) {
+            if (e.getValue().isTree()) {
+                diffTrees(e.getValue().id, null, prefix + e.getKey(), changed);
+            } else {
+                changed.add(prefix + e.getKey());
+            }
+        }
+    }
+
+    private void listFiles(String tree, String prefix, Set<String> files) throws IOException {
+        for (Map.Entry<String, TreeEntry> e : readTree(tree).entrySet()) {
+            if (e.getValue().isTree()) {
+                listFiles(e.getValue().id, prefix + e.getKey(), files);
+            } else {
+                files.add(prefix + e.getKey());
+            }
+        }
+    }
+
+    private static class GitObject {
+        final int type;
+        final byte[] data;
+
+        GitObject(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private GitObject readObject(String id) throws IOException {
+        return readObject(id, 0);
+    }
+
+    private GitObject readObject(String id, int depth) throws IOException {
+        GitObject o = cache.get(id);
+        if (o != null) {
+            return o;
+        }
+        byte[] raw = fromHex(id);
+        for (Pack pack : packs) {
+            long offset = pack.find(raw);
+            if (offset >= 0) {
+                return pack.read(offset, depth);
+            }
+        }
+        for (File dir : objectDirs) {
+            File loose = new File(new File(dir, id.substring(0, 2)), id.substring(2));
+            if (loose.isFile()) {
+                o = readLoose(loose);
+                cache.put(id, o);
+                return o;
+            }
+        }
+        throw new IOException("Missing object " + id);
+    }
+
+    // a loose object is "type size\0data", deflated
+    private static GitObject readLoose(File file) throws IOException {
+        byte[] compressed = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int done = 0;
+            while (done < compressed.length) {
+                int n = in.read(compressed, done, compressed.length - done);
+                if (n < 0) {
+                    throw new IOException("Short read of " + file);
+                }
+                done += n;
+            }
+        } finally {
+            in.close();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] header = new byte[64];
+            int length = 0;
+            // inflate the header one byte at a time, up to the NUL
+            while (length == 0 || header[length - 1] != 0) {
+                if (length == header.length || inflater.inflate(header, length, 1) == 0) {
+                    throw new IOException("Malformed object header in " + file);
+                }
+                length++;
+            }
+            String text = new String(header, 0, length - 1, "US-ASCII");
+            int space = text.indexOf(' ');
+            String type = text.substring(0, space);
+            int size = Integer.parseInt(text.substring(space + 1));
+            byte[] data = new byte[size + 1];
+            int done = 0;
+            while (!inflater.finished()) {
+                int n = inflater.inflate(data, done, data.length - done);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated object " + file);
+                }
+                done += n;
+            }
+            if (done != size) {
+                throw new IOException("Wrong object size in " + file);
+            }
+            int typeCode = type.equals("commit") ? OBJ_COMMIT : type.equals("tree") ? OBJ_TREE : 0;
+            return new GitObject(typeCode, truncate(data, size));
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt object " + file + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed object " + file + ": " + e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A pack file and its version 2 index, both memory mapped.
+     */
+    private class Pack {
+        private final File file;
+        private final ByteBuffer idx;
+        private final ByteBuffer pack;
+        private final int count;
+        // position of the object ids in idx
+        private static final int IDS = 8 + 256 * 4;
+
+        Pack(File idxFile, File packFile) throws IOException {
+            file = packFile;
+            idx = map(idxFile);
+            pack = map(packFile);
+            if (idx.getInt(0) != 0xff744f63 || idx.getInt(4) != 2) {
+                throw new IOException("Unsupported pack index " + idxFile);
+            }
+            if (pack.getInt(0) != 0x5041434b) { // "PACK"
+                throw new IOException("Bad pack signature in " + packFile);
+            }
+            count = idx.getInt(8 + 255 * 4);
+        }
+
+        // the offset of id in the pack, or -1
+        long find(byte[] id) {
+            int first = id[0] & 0xff;
+            int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+            int hi = idx.getInt(8 + first * 4);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareId(mid, id);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid;
+                } else {
+                    int offsets = IDS + count * (ID_LENGTH + 4);
+                    int offset = idx.getInt(offsets + mid * 4);
+                    if ((offset & 0x80000000) == 0) {
+                        return offset;
+                    }
+                    return idx.getLong(offsets + count * 4 + (offset & 0x7fffffff) * 8);
+                }
+            }
+            return -1;
+        }
+
+        private int compareId(int index, byte[] id) {
+            int base = IDS + index * ID_LENGTH;
+            for (int i = 0; i < ID_LENGTH; i++) {
+                int diff = (idx.get(base + i) & 0xff) - (id[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return 0;
+        }
+
+        // depth is the number of deltas that led here
+        GitObject read(long offset, int depth) throws IOException {
+            Pair<Pack, Long> key = new Pair<Pack, Long>(this, offset);
+            GitObject o = cache.get(key);
+            if (o != null) {
+                return o;
+            }
+            if (offset < 12 || offset >= pack.limit()) {
+                throw new IOException("Bad offset " + offset + " in " + file);
+            }
+            if (depth > MAX_DELTA_DEPTH) {
+                throw new IOException("Delta chain too long at " + offset + " in " + file);
+            }
+            try {
+                int pos = (int) offset;
+                int c = pack.get(pos++) & 0xff;
+                int type = (c >> 4) & 7;
+                long size = c & 15;
+                int shift = 4;
+                while ((c & 0x80) != 0) {
+                    c = pack.get(pos++) & 0xff;
+                    size += (long) (c & 0x7f) << shift;
+                    shift += 7;
+                }
+                if (size > Integer.MAX_VALUE - 1) {
+                    throw new IOException("Object too large at " + offset + " in " + file);
+                }
+                if (type == OBJ_OFS_DELTA) {
+                    int[] cursor = {pos};
+                    long base = offset - readOffset(pack, cursor);
+                    // the base always comes first, which also rules out loops
+                    if (base < 12 || base >= offset) {
+                        throw new IOException("Bad delta base " + base + " at " + offset + " in " + file);
+                    }
+                    GitObject b = read(base, depth + 1);
+                    o = new GitObject(b.type, applyDelta(b.data, inflate(cursor[0], (int) size)));
+                } else if (type == OBJ_REF_DELTA) {
+                    GitObject b = readObject(toHex(pack, pos), depth + 1);
+                    o = new GitObject(b.type, applyDelta(b.data, inflate(pos + ID_LENGTH, (int) size)));
+                } else {
+                    o = new GitObject(type, inflate(pos, (int) size));
+                }
+            } catch (RuntimeException e) {
+                // reading past the end of the pack, mostly
+                throw new IOException("Malformed object at " + offset + " in " + file + ": " + e);
+            }
+            cache.put(key, o);
+            return o;
+        }
+
+        private byte[] inflate(int pos, int size) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                ByteBuffer in = pack.duplicate();
+                in.position(pos);
+                byte[] input = new byte[8192];
+                // one spare byte, so that inflate() is never asked for 0 bytes
+                byte[] data = new byte[size + 1];
+                int done = 0;
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        int n = Math.min(input.length, in.remaining());
+                        if (n == 0) {
+                            throw new IOException("Truncated object in " + file);
+                        }
+                        in.get(input, 0, n);
+                        inflater.setInput(input, 0, n);
+                    }
+                    int n = inflater.inflate(data, done, data.length - done);
+                    if (n == 0 && inflater.needsDictionary()) {
+                        throw new IOException("Corrupt object in " + file);
+                    }
+                    done += n;
+                    if (done > size) {
+                        throw new IOException("Object larger than its size in " + file);
+                    }
+                }
+                if (done != size) {
+                    throw new IOException("Object smaller than its size in " + file);
+                }
+                return truncate(data, size);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt object in " + file + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * The object a pack delta makes of base.  Throws IOException for a delta that
+     * doesn't fit base, however it is damaged.
+     */
+    static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int pos = 0;
+        long[] sizes = new long[2];
+        for (int i = 0; i < 2; i++) {
+            int shift = 0;
+            int c;
+            do {
+                if (pos >= delta.length || shift > 63) {
+                    throw new IOException("Malformed delta header");
+                }
+                c = delta[pos++] & 0xff;
+                sizes[i] |= (long) (c & 0x7f) << shift;
+                shift += 7;
+            } while ((c & 0x80) != 0);
+        }
+        if (sizes[0] != base.length) {
+            throw new IOException("Delta base has the wrong size");
+        }
+        // each byte of the delta adds at most a copy of the base or 127 inserted bytes
+        if (sizes[1] < 0 || sizes[1] > Integer.MAX_VALUE - 1
+                || sizes[1] > (long) delta.length * Math.max(base.length, 127)) {
+            throw new IOException("Delta result too large");
+        }
+        byte[] result = new byte[(int) sizes[1]];
+        int out = 0;
+        while (pos < delta.length) {
+            int cmd = delta[pos++] & 0xff;
+            if ((cmd & 0x80) != 0) {
+                // the operand bytes are counted by the bits set in cmd
+                if (Integer.bitCount(cmd & 0x7f) > delta.length - pos) {
+                    throw new IOException("Truncated delta instruction");
+                }
+                long offset = 0;
+                int size = 0;
+                for (int i = 0; i < 4; i++) {
+                    if ((cmd & (1 << i)) != 0) {
+                        offset |= (long) (delta[pos++] & 0xff) << (8 * i);
+                    }
+                }
+                for (int i = 0; i < 3; i++) {
+                    if ((cmd & (0x10 << i)) != 0) {
+                        size |= (delta[pos++] & 0xff) << (8 * i);
+                    }
+                }
+                if (size == 0) {
+                    size = 0x10000;
+                }
+                if (offset + size > base.length || size > result.length - out) {
+                    throw new IOException("Delta copies outside its base or result");
+                }
+                System.arraycopy(base, (int) offset, result, out, size);
+                out += size;
+            } else if (cmd != 0) {
+                if (cmd > delta.length - pos || cmd > result.length - out) {
+                    throw new IOException("Delta inserts past its end or its result");
+                }
+                System.arraycopy(delta, pos, result, out, cmd);
+                pos += cmd;
+                out += cmd;
+            } else {
+                throw new IOException("Bad delta instruction");
+            }
+        }
+        if (out != result.length) {
+            throw new IOException("Delta result has the wrong size");
+        }
+        return result;
+    }
+
+    /**
+     * Inflated objects, least recently used ones dropped first once they take
+     * more than CACHE_SIZE bytes.  Keys are object ids for loose objects and
+     * (pack, offset) pairs for packed ones.
+     */
+    private static class ObjectCache {
+        private final LinkedHashMap<Object, GitObject> objects =
+                new LinkedHashMap<Object, GitObject>(256, 0.75f, true);
+        private long size = 0;
+
+        GitObject get(Object key) {
+            return objects.get(key);
+        }
+
+        void put(Object key, GitObject o) {
+            if (o.data.length > CACHE_SIZE / 4) {
+                return;
+            }
+            GitObject old = objects.put(key, o);
+            size += o.data.length - (old == null ? 0 : old.data.length);
+            Iterator<GitObject> it = objects.values().iterator();
+            while (size > CACHE_SIZE && it.hasNext()) {
+                size -= it.next().data.length;
+                it.remove();
+            }
+        }
+    }
+
+    // the offset encoding of ofs deltas and index v4 names
+    private static long readOffset(ByteBuffer buf, int[] cursor) {
+        int c = buf.get(cursor[0]++) & 0xff;
+        long value = c & 0x7f;
+        while ((c & 0x80) != 0) {
+            c = buf.get(cursor[0]++) & 0xff;
+            value = ((value + 1) << 7) | (c & 0x7f);
+        }
+        return value;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buf;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void getBytes(ByteBuffer buf, int pos, byte[] dst, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[off + i] = buf.get(pos + i);
+        }
+    }
+
+    private static byte[] truncate(byte[] data, int size) {
+        if (data.length == size) {
+            return data;
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(data, 0, result, 0, size);
+        return result;
+    }
+
+    private static String readText(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int done = 0;
+            while (done < data.length) {
+                int n = in.read(data, done, data.length - done);
+                if (n < 0) {
+                    break;
+                }
+                done += n;
+            }
+            return new String(data, 0, done, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File resolve(File base, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(base, path);
+    }
+
+    private static String checkId(String id) throws IOException {
+        if (!id.matches("[0-9a-f]{40}")) {
+            throw new IOException("Not an object id: " + id);
+        }
+        return id;
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static String toHex(byte[] data, int pos) {
+        char[] chars = new char[ID_LENGTH * 2];
+        for (int i = 0; i < ID_LENGTH; i++) {
+            chars[2 * i] = HEX[(data[pos + i] >> 4) & 15];
+            chars[2 * i + 1] = HEX[data[pos + i] & 15];
+        }
+        return new String(chars);
+    }
+
+    private static String toHex(ByteBuffer buf, int pos) {
+        byte[] id = new byte[ID_LENGTH];
+        getBytes(buf, pos, id, 0, ID_LENGTH);
+        return toHex(id, 0);
+    }
+
+    private static byte[] fromHex(String id) {
+        byte[] raw = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++) {
+            raw[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+}
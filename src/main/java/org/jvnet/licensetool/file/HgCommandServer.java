@@ -0,0 +1,322 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * A resident "hg serve --cmdserver pipe" process.  Commands sent to it run inside
+ * the same process, so a Mercurial lookup costs a round trip on a pipe instead of
+ * starting Python again.
+ * <p>
+ * Idle servers are pooled per repository until shutdown().  A command that takes
+ * longer than TIMEOUT gets its server killed; a server that fails is thrown away
+ * and the command is retried once on a fresh one.
+ *
+ * @see <a href="https://www.mercurial-scm.org/wiki/CommandServer">CommandServer</a>
+ */
+class HgCommandServer {
+    // resident servers kept per repository
+    private static final int POOL_SIZE = 4;
+    private static final long TIMEOUT = 60 * 1000;
+
+    private static final Map<File, BlockingQueue<HgCommandServer>> pools =
+            new HashMap<File, BlockingQueue<HgCommandServer>>();
+    // repositories where no server could be started, e.g. hg is too old
+    private static final Set<File> unavailable = new HashSet<File>();
+    private static final Timer watchdog = new Timer("hg command server watchdog", true);
+    // starts a server in the repository; tests start a fake one
+    static String[] command = {"hg", "serve", "--cmdserver", "pipe", "--config", "ui.interactive=False"};
+
+    private final Process process;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final String encoding;
+
+    private HgCommandServer(File root) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(root);
+        pb.environment().put("HGPLAIN", "1");
+        pb.environment().put("HGENCODING", "UTF-8");
+        process = pb.start();
+        drain(process.getErrorStream());
+        in = new DataInputStream(process.getInputStream());
+        out = process.getOutputStream();
+
+        // hello message: "capabilities: ...\nencoding: ...\n..."
+        String hello;
+        try {
+            if (in.readUnsignedByte() != 'o') {
+                throw new IOException("No hello message from hg command server");
+            }
+            hello = new String(readChunk(), "US-ASCII");
+        } catch (IOException e) {
+            process.destroy();
+            throw e;
+        }
+        if (!hello.contains("runcommand")) {
+            process.destroy();
+            throw new IOException("hg command server does not support runcommand: " + hello);
+        }
+        String enc = "UTF-8";
+        for (String line : hello.split("\n")) {
+            if (line.startsWith("encoding: ")) {
+                enc = line.substring("encoding: ".length()).trim();
+            }
+        }
+        encoding = enc;
+    }
+
+    /**
+     * Thrown when hg ran the command but it exited with an error; the server is fine.
+     */
+    static class CommandFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CommandFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Runs "hg args" in the repository at root and returns what it wrote to its output
+     * channel.  Throws CommandFailedException if hg exited with an error, and
+     * IOException if no server can be started for root, or the server failed twice.
+     */
+    static String runCommand(File root, String... args) throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            HgCommandServer server = acquire(root);
+            String output;
+            try {
+                output = server.run(args);
+            } catch (CommandFailedException e) {
+                release(root, server);
+                throw e;
+            } catch (IOException e) {
+                LOGGER.fine("hg command server in " + root + " failed, restarting it: " + e);
+                server.process.destroy();
+                failure = e;
+                continue;
+            }
+            release(root, server);
+            return output;
+        }
+        throw failure;
+    }
+
+    private static HgCommandServer acquire(File root) throws IOException {
+        BlockingQueue<HgCommandServer> pool;
+        synchronized (pools) {
+            if (unavailable.contains(root)) {
+                throw new IOException("No hg command server for " + root);
+            }
+            pool = pools.get(root);
+            if (pool == null) {
+                pool = new ArrayBlockingQueue<HgCommandServer>(POOL_SIZE);
+                pools.put(root, pool);
+            }
+        }
+        HgCommandServer server = pool.poll();
+        if (server != null) {
+            return server;
+        }
+        try {
+            return new HgCommandServer(root);
+        } catch (IOException e) {
+            synchronized (pools) {
+                unavailable.add(root);
+            }
+            throw e;
+        }
+    }
+
+    private static void release(File root, HgCommandServer server) {
+        BlockingQueue<HgCommandServer> pool;
+        synchronized (pools) {
+            pool = pools.get(root);
+        }
+        // no pool after shutdown()
+        if (pool == null || !pool.offer(server)) {
+            server.close();
+        }
+    }
+
+    /**
+     * Closes the idle servers of every repository and forgets where none could be
+     * started, so that no hg process outlives the scan.  A server still running a
+     * command is closed when it is done.
+     */
+    static void shutdown() {
+        List<BlockingQueue<HgCommandServer>> closing;
+        synchronized (pools) {
+            closing = new ArrayList<BlockingQueue<HgCommandServer>>(pools.values());
+            pools.clear();
+            unavailable.clear();
+        }
+        for (BlockingQueue<HgCommandServer> pool : closing) {
+            HgCommandServer server;
+            while ((server = pool.poll()) != null) {
+                server.close();
+            }
+        }
+    }
+
+    private String run(String... args) throws IOException {
+        ByteArrayOutputStream command = new ByteArrayOutputStream();
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                command.write(0);
+            }
+            command.write(args[i].getBytes(encoding));
+        }
+        TimerTask kill = new TimerTask() {
+            public void run() {
+                process.destroy();
+            }
+        };
+        watchdog.schedule(kill, TIMEOUT);
+        try {
+            out.write("runcommand\n".getBytes("US-ASCII"));
+            writeInt(command.size());
+            command.writeTo(out);
+            out.flush();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ByteArrayOutputStream error = new ByteArrayOutputStream();
+            while (true) {
+                int channel = in.readUnsignedByte();
+                switch (channel) {
+                    case 'o':
+                        output.write(readChunk());
+                        break;
+                    case 'e':
+                        // warnings must not end up among the file names
+                        error.write(readChunk());
+                        break;
+                    case 'r':
+                        byte[] code = readChunk();
+                        int exitCode = code.length == 4 ? ByteBuffer.wrap(code).getInt() : -1;
+                        String message = error.toString(encoding).trim();
+                        if (exitCode != 0) {
+                            throw new CommandFailedException("hg " + args[0] + " exited with " + exitCode
+                                    + (message.length() == 0 ? "" : ": " + message));
+                        }
+                        if (message.length() > 0) {
+                            LOGGER.fine("hg " + args[0] + ": " + message);
+                        }
+                        return output.toString(encoding);
+                    case 'I':
+                    case 'L':
+                        // we never have input to give
+                        throw new IOException("hg asked for input");
+                    default:
+                        if (Character.isUpperCase((char) channel)) {
+                            throw new IOException("Unexpected channel from hg: " + (char) channel);
+                        }
+                        readChunk();
+                }
+            }
+        } finally {
+            kill.cancel();
+        }
+    }
+
+    private byte[] readChunk() throws IOException {
+        int length = in.readInt();
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // the process is gone already
+        }
+        process.destroy();
+    }
+
+    // so that hg never blocks on a full stderr pipe
+    private static void drain(final InputStream stream) {
+        Thread t = new Thread("hg command server stderr") {
+            public void run() {
+                byte[] buf = new byte[1024];
+                try {
+                    while (stream.read(buf) != -1) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // the process is gone
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(HgCommandServer.class.getName());
+}
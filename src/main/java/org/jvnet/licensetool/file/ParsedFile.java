@@ -40,9 +40,16 @@
 
 package org.jvnet.licensetool.file;
 
+import org.jvnet.licensetool.generic.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 /**
  * Represents a parsed file.
@@ -50,6 +57,17 @@ import java.io.IOException;
 public abstract class ParsedFile implements Versioned {
     private final FileWrapper originalFile;
     private VCS vcs;
+    private List<Block> originalBlocks;
+    private boolean dirty;
+    // lookup of the last modified year started by the Scanner, if any
+    private Future<String> lastModifiedYear;
+    private String year;
+    private boolean yearKnown = false;
+    // what writeBlocks() wrote: head followed by the original bytes from writtenTailOffset
+    private String writtenHead = null;
+    private long writtenTailOffset;
+    // messages of the validation errors found in this file
+    private final List<String> validationErrors = new ArrayList<String>();
     protected ParsedFile(FileWrapper originalFile) {
         this.originalFile = originalFile;
     }
@@ -62,18 +80,218 @@ public abstract class ParsedFile implements Versioned {
     
     /**
      * This is similar to writing back to the original file that got parsed.
+     * Nothing is written if the file was not changed since it was parsed.
      *
+     * @return true if the original file was actually changed.
      * @throws IOException
      */
-    public void write() throws IOException {
-      writeTo(originalFile);
+    public boolean write() throws IOException {
+        if (!isDirty()) {
+            return false;
+        }
+        return writeTo(originalFile);
+    }
+
+    /**
+     * @return false if fw already had the contents that would have been written.
+     */
+    public abstract boolean writeTo(FileWrapper fw) throws IOException ;
+
+    /**
+     * Subclasses call this whenever they add or remove a block.
+     */
+    protected void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * True if a block was added or removed, or a comment block was replaced,
+     * since the file was parsed.
+     */
+    public boolean isDirty() {
+        if (dirty) {
+            return true;
+        }
+        if (originalBlocks != null) {
+            for (Block b : originalBlocks) {
+                if (isModified(b)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remember the blocks as parsed from the original file, so that writeBlocks()
+     * can tell which part of the file was left alone.  Subclasses call this once
+     * the file is split into blocks.
+     */
+    protected void setOriginalBlocks(List<Block> blocks) {
+        originalBlocks = new ArrayList<Block>(blocks);
+    }
+
+    /**
+     * Replace the contents of fw with blocks.
+     * <p>
+     * The blocks at the end of the list that are unchanged since the file was parsed
+     * are not written through a Writer: their bytes are copied from the original file
+     * with FileChannel.transferTo, together with any tail of the original file that
+     * was not parsed at all (see FileWrapper.setReadLimit).  Only the changed head is
+     * encoded again.  Everything goes to a temporary file that is synced and then
+     * renamed over fw, so a crash never leaves a half written file behind.
+     * <p>
+     * If the new head is the same text as the original one, fw is not touched.
+     *
+     * @return true if fw was changed.
+     */
+    protected boolean writeBlocks(FileWrapper fw, List<Block> blocks) throws IOException {
+        if (!fw.canWrite()) {
+            LOGGER.info("Skipping file " + fw + " because is is not writable");
+            return false;
+        }
+        long parsedLength = originalFile.isPartiallyRead() ? originalFile.getTailOffset() : originalFile.length();
+
+        // find the unchanged blocks at the end of the file
+        int unchanged = 0;
+        if (originalBlocks != null) {
+            int n = blocks.size();
+            int m = originalBlocks.size();
+            while (unchanged < n && unchanged < m) {
+                Block b = blocks.get(n - 1 - unchanged);
+                if (b != originalBlocks.get(m - 1 - unchanged) || isModified(b)) {
+                    break;
+                }
+                unchanged++;
+            }
+        }
+
+        long tailOffset = parsedLength;
+        int headCount = blocks.size();
+        String originalHead = null;
+        // the original text of whatever the new head replaces
+        String originalText = null;
+        if (originalBlocks != null) {
+            int m = originalBlocks.size();
+            String prefix = concatOriginal(originalBlocks, 0, m - unchanged);
+            // Characters that could not be decoded don't tell how many bytes they stood for.
+            if (unchanged > 0 && prefix.indexOf('\uFFFD') == -1) {
+                originalHead = prefix;
+                originalText = prefix;
+                tailOffset = originalHead.getBytes(Charset.defaultCharset().name()).length;
+                headCount = blocks.size() - unchanged;
+            } else {
+                originalText = prefix + concatOriginal(originalBlocks, m - unchanged, m);
+            }
+        }
+
+        String head = concat(blocks, 0, headCount);
+        if (fw == originalFile && originalText != null
+                && originalText.hashCode() == head.hashCode() && originalText.equals(head)) {
+            LOGGER.fine("Unchanged: " + fw);
+            return false;
+        }
+        if (fw == originalFile) {
+            writtenHead = head;
+            writtenTailOffset = tailOffset;
+        }
+        if (fw == originalFile && originalHead != null && patchDigits(originalHead, head)) {
+            return true;
+        }
+        fw.replaceContents(head, originalFile, tailOffset);
+        return true;
+    }
+
+    private static String concat(List<Block> blocks, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            sb.append(blocks.get(i).contents());
+        }
+        return sb.toString();
+    }
+
+    // like concat(), but with the contents the blocks had when they were parsed
+    private static String concatOriginal(List<Block> blocks, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            Block b = blocks.get(i);
+            sb.append(b instanceof CommentBlock ? ((CommentBlock) b).originalContents() : b.contents());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * If newHead differs from originalHead only in some ASCII digits (typically
+     * a copyright year going from 1997-2023 to 1997-2024), overwrite just those
+     * bytes of the original file in place and return true.  Otherwise return false
+     * and leave the file alone.
+     */
+    private boolean patchDigits(String originalHead, String newHead) throws IOException {
+        if (originalHead.length() != newHead.length() || originalHead.equals(newHead)) {
+            return false;
+        }
+        String charset = Charset.defaultCharset().name();
+        if (!Arrays.equals("0123456789".getBytes(charset), "0123456789".getBytes("US-ASCII"))) {
+            return false;
+        }
+        List<Pair<Long, byte[]>> patches = new ArrayList<Pair<Long, byte[]>>();
+        long offset = 0; // byte offset of originalHead.charAt(done)
+        int done = 0;
+        int i = 0;
+        while (i < newHead.length()) {
+            if (originalHead.charAt(i) == newHead.charAt(i)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < newHead.length() && originalHead.charAt(i) != newHead.charAt(i)) {
+                if (!isDigit(originalHead.charAt(i)) || !isDigit(newHead.charAt(i))) {
+                    return false;
+                }
+                i++;
+            }
+            offset += originalHead.substring(done, start).getBytes(charset).length;
+            patches.add(new Pair<Long, byte[]>(offset, newHead.substring(start, i).getBytes("US-ASCII")));
+            offset += i - start;
+            done = i;
+        }
+        originalFile.patch(patches);
+        LOGGER.fine("Patched " + patches.size() + " digit run(s) in place in " + originalFile);
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isModified(Block b) {
+        return (b instanceof CommentBlock) && ((CommentBlock) b).isModified();
     }
-    public abstract void writeTo(FileWrapper fw) throws IOException ;
 
     public String getPath() {
         return originalFile.toString();
     }
 
+    /**
+     * The text write() put in place of the original bytes before getWrittenTailOffset(),
+     * or null if it didn't change the file.
+     */
+    public String getWrittenHead() {
+        return writtenHead;
+    }
+
+    public long getWrittenTailOffset() {
+        return writtenTailOffset;
+    }
+
+    public void addValidationError(String msg) {
+        validationErrors.add(msg);
+    }
+
+    public List<String> getValidationErrors() {
+        return validationErrors;
+    }
+
     public void setVCS(VCS vcs) {
         this.vcs = vcs;    
     }
@@ -82,6 +300,36 @@ public abstract class ParsedFile implements Versioned {
         return vcs;
     }
 
+    /**
+     * Hands over a lookup of getLastModifiedYear() that is already running.
+     */
+    public void setLastModifiedYear(Future<String> year) {
+        this.lastModifiedYear = year;
+    }
+
+    /**
+     * Returns the year the file was last changed according to its VCS, or null.
+     * Waits for the lookup passed to setLastModifiedYear() if there is one,
+     * otherwise asks the VCS.  The year is looked up only once.
+     */
+    public synchronized String getLastModifiedYear() {
+        if (!yearKnown) {
+            if (lastModifiedYear != null) {
+                try {
+                    year = lastModifiedYear.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    LOGGER.warning("Could not find the last modified year of " + getPath() + ": " + e.getCause());
+                }
+            } else if (vcs != null) {
+                year = vcs.getLastModifiedYear(getPath());
+            }
+            yearKnown = true;
+        }
+        return year;
+    }
+
     public abstract boolean isPreamble(String line);
     
     private static final Logger LOGGER = Logger.getLogger(FileParser.class.getName());
@@ -41,10 +41,9 @@
 package org.jvnet.licensetool.file;
 
 import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.util.ToolUtil;
 
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 import java.io.IOException;
 
 /**
@@ -149,14 +148,10 @@ public class PlainBlock extends Block {
      * first line of the original Block in result.first().
      */
     public Pair<Block, Block> splitFirst() {
-        //String patternStr = "(?m)(.*)[\\r]?[\\n]?";
-        String patternStr = "(.+?)^";
-
-        Pattern pattern = Pattern.compile(patternStr, Pattern.MULTILINE | Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(data);
-        if (matcher.find()) {
-            String fline = matcher.group();
-            String rest = data.substring(matcher.end());
+        int end = ToolUtil.nextLineStart(data, 0);
+        if (end != -1) {
+            String fline = data.substring(0, end);
+            String rest = data.substring(end);
             return new Pair<Block, Block>(
                 new PlainBlock(fline, tags), new PlainBlock(rest, tags));
         } else {
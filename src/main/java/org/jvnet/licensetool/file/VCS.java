@@ -40,17 +40,42 @@
 
 package org.jvnet.licensetool.file;
 
+import org.jvnet.licensetool.generic.UnaryBooleanFunction;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParserFactory;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
 
 /**
 * @author Rama Pulavarthi
 */
 public enum VCS {
     CVS {
-        public String getLastModifiedYear(String f) {
+        protected String lookup(String f) {
             String workingRev = "Working revision:";
             String dateInfo = "date: ";
             String year = null;
@@ -83,10 +108,135 @@ public enum VCS {
             }
             return year;
         }
+
+        /**
+         * The working revisions come from CVS/Entries, their dates from a single
+         * local "cvs log" of the directory.
+         */
+        protected Map<String, String> lookupDirectory(File dir) {
+            final Map<String, String> revisions = readEntries(dir);
+            if (revisions == null) {
+                return null;
+            }
+            final Map<String, String> yearOf = new HashMap<String, String>();
+            if (revisions.isEmpty()) {
+                return yearOf;
+            }
+            try {
+                String failure = executeExternalCommand(dir, null, new UnaryBooleanFunction<String>() {
+                    private String file = null;
+                    private boolean wanted = false;
+
+                    public boolean evaluate(String line) {
+                        if (line.startsWith("Working file: ")) {
+                            file = line.substring("Working file: ".length()).trim();
+                            wanted = false;
+                        } else if (file != null && line.startsWith("revision ")) {
+                            String rev = line.substring("revision ".length()).trim();
+                            int end = rev.indexOf('\t');
+                            if (end != -1) {
+                                rev = rev.substring(0, end);
+                            }
+                            wanted = rev.equals(revisions.get(file));
+                        } else if (wanted && line.startsWith("date: ") && line.length() >= 10) {
+                            yearOf.put(file, line.substring(6, 10));
+                            wanted = false;
+                        }
+                        return true;
+                    }
+                }, "cvs", "-q", "log", "-l", "-N");
+                if (failure != null) {
+                    // each file is looked up on its own
+                    LOGGER.fine("cvs log failed in " + dir + ": " + failure);
+                    return null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            return yearOf;
+        }
+
+        /**
+         * The files come from the CVS/Entries of each directory, without asking the server.
+         */
+        public void listFiles(File root, UnaryBooleanFunction<File> handler) throws IOException {
+            if (!new File(new File(root, "CVS"), "Entries").isFile()) {
+                throw new IOException(root + " is not a CVS working directory");
+            }
+            listEntries(root, handler);
+        }
+
+        // false once handler asked to stop
+        private boolean listEntries(File dir, UnaryBooleanFunction<File> handler) throws IOException {
+            File entries = new File(new File(dir, "CVS"), "Entries");
+            if (!entries.isFile()) {
+                return true;
+            }
+            List<String> dirs = new ArrayList<String>();
+            BufferedReader r = new BufferedReader(new FileReader(entries));
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    // /name/revision/timestamp/options/tagdate or D/name////
+                    String[] fields = line.split("/", -1);
+                    if (fields.length < 3) {
+                        continue;
+                    }
+                    if (line.startsWith("D/")) {
+                        dirs.add(fields[1]);
+                    } else if (line.startsWith("/") && !fields[2].startsWith("-")) {
+                        // a revision starting with - is a removed file
+                        if (!handler.evaluate(new File(dir, fields[1]))) {
+                            return false;
+                        }
+                    }
+                }
+            } finally {
+                r.close();
+            }
+            for (String d : dirs) {
+                if (!listEntries(new File(dir, d), handler)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // file name -> working revision, or null if dir is not a CVS working directory
+        private Map<String, String> readEntries(File dir) {
+            File entries = new File(new File(dir, "CVS"), "Entries");
+            if (!entries.isFile()) {
+                return null;
+            }
+            Map<String, String> revisions = new HashMap<String, String>();
+            try {
+                BufferedReader r = new BufferedReader(new FileReader(entries));
+                try {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        // /name/revision/timestamp/options/tagdate
+                        if (!line.startsWith("/")) {
+                            continue;
+                        }
+                        String[] fields = line.split("/", -1);
+                        if (fields.length > 2 && fields[2].matches("[0-9\\.]+")) {
+                            revisions.put(fields[1], fields[2]);
+                        }
+                    }
+                } finally {
+                    r.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            return revisions;
+        }
     },
 
     SVN {
-        public String getLastModifiedYear(String f) {
+        protected String lookup(String f) {
             String lastChanged = "Last Changed Date: ";
             String output = "";
             try {
@@ -104,14 +254,103 @@ public enum VCS {
             }
             return year;
         }
+
+        /**
+         * One "svn info --xml" for all the files directly in dir.
+         */
+        protected Map<String, String> lookupDirectory(File dir) {
+            final StringBuilder xml = new StringBuilder();
+            try {
+                executeExternalCommand(dir, "UTF-8", new UnaryBooleanFunction<String>() {
+                    public boolean evaluate(String line) {
+                        xml.append(line).append('\n');
+                        return true;
+                    }
+                }, "svn", "info", "--depth", "files", "--xml", ".");
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            int start = xml.indexOf("<?xml");
+            if (start == -1) {
+                // not a working copy, or an svn without --depth
+                return null;
+            }
+            final Map<String, String> yearOf = new HashMap<String, String>();
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(
+                        new InputSource(new StringReader(xml.substring(start))),
+                        new DefaultHandler() {
+                            private String file = null;
+                            private StringBuilder date = null;
+
+                            @Override
+                            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                                if (qName.equals("entry")) {
+                                    file = "file".equals(attributes.getValue("kind"))
+                                            ? new File(attributes.getValue("path")).getName() : null;
+                                } else if (qName.equals("date") && file != null) {
+                                    date = new StringBuilder();
+                                }
+                            }
+
+                            @Override
+                            public void characters(char[] ch, int start, int length) {
+                                if (date != null) {
+                                    date.append(ch, start, length);
+                                }
+                            }
+
+                            @Override
+                            public void endElement(String uri, String localName, String qName) {
+                                if (qName.equals("date") && date != null) {
+                                    String d = date.toString().trim();
+                                    if (d.length() >= 4 && !yearOf.containsKey(file)) {
+                                        yearOf.put(file, d.substring(0, 4));
+                                    }
+                                    date = null;
+                                } else if (qName.equals("entry")) {
+                                    file = null;
+                                }
+                            }
+                        });
+            } catch (Exception e) {
+                LOGGER.fine("Could not read svn info of " + dir + ": " + e);
+                return null;
+            }
+            return yearOf;
+        }
+
+        /**
+         * The files of the checked out revision, listed by a single "svn list".
+         */
+        public void listFiles(final File root, final UnaryBooleanFunction<File> handler) throws IOException {
+            String failure = executeExternalCommand(root, "UTF-8", new UnaryBooleanFunction<String>() {
+                public boolean evaluate(String line) {
+                    if (line.length() == 0 || line.endsWith("/")) {
+                        // a directory
+                        return true;
+                    }
+                    return handler.evaluate(new File(root, line));
+                }
+            }, "svn", "list", "-R", "-r", "BASE", ".");
+            if (failure != null) {
+                throw new IOException("svn list failed in " + root + ": " + failure);
+            }
+        }
     },
 
     HG {
-        public String getLastModifiedYear(String f) {
+        protected String lookup(String f) {
             String output = "";
             try {
-                output = executeExternalCommand(new File(f).getParentFile(), "hg", "log", "--limit", "1",
-                        "--template", "{date|shortdate}", f);
+                File root = findRoot(new File(f).getAbsoluteFile().getParentFile(), ".hg");
+                output = root == null ? null : executeHgCommand(root, "log", "--limit", "1",
+                        "--template", "{date|shortdate}", new File(f).getAbsolutePath());
+                if (output == null) {
+                    output = executeExternalCommand(new File(f).getParentFile(), "hg", "log", "--limit", "1",
+                            "--template", "{date|shortdate}", f);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -123,36 +362,691 @@ public enum VCS {
             }
             return null;
         }
+
+        // changeset date lines, each followed by the files of the changeset
+        private static final String TEMPLATE = "\\0{date|shortdate}\\n{files % '{file}\\n'}";
+
+        // repository root -> (directory relative to the root -> (file name -> year))
+        private final ConcurrentMap<File, Future<Map<String, Map<String, String>>>> savedYears =
+                new ConcurrentHashMap<File, Future<Map<String, Map<String, String>>>>();
+        // repository root -> "rev:node" of the tip the saved years are up to date with
+        private final Map<File, String> savedTips = new ConcurrentHashMap<File, String>();
+        // repositories whose saved years changed in this run
+        private final Set<File> unsaved = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+        /**
+         * One "hg log" of the files directly in dir; every changeset lists its files
+         * relative to the repository root, newest changeset first.  Directories
+         * read in an earlier run come from the cache in the .hg directory.
+         * Different directories are looked up at the same time.
+         */
+        protected Map<String, String> lookupDirectory(File dir) {
+            File root = findRoot(dir, ".hg");
+            if (root == null) {
+                return null;
+            }
+            String rel = dir.getPath().substring(root.getPath().length()).replace(File.separatorChar, '/');
+            if (rel.startsWith("/")) {
+                rel = rel.substring(1);
+            }
+            final String prefix = rel.length() == 0 ? "" : rel + "/";
+            Map<String, Map<String, String>> saved = getSavedYears(root);
+            if (saved.containsKey(prefix)) {
+                return saved.get(prefix);
+            }
+            final Map<String, String> yearOf = new HashMap<String, String>();
+            UnaryBooleanFunction<String> lineHandler = new UnaryBooleanFunction<String>() {
+                private String year = null;
+
+                public boolean evaluate(String line) {
+                    if (line.startsWith(DATE_MARK)) {
+                        year = line.length() >= 5 ? line.substring(1, 5) : null;
+                    } else if (year != null && line.startsWith(prefix)
+                            && line.indexOf('/', prefix.length()) == -1) {
+                        String name = line.substring(prefix.length());
+                        if (!yearOf.containsKey(name)) {
+                            yearOf.put(name, year);
+                        }
+                    }
+                    return true;
+                }
+            };
+            try {
+                // glob patterns are relative to the working directory, the server's is root
+                String output = executeHgCommand(root, "log", "--template", TEMPLATE,
+                        "glob:" + prefix.replaceAll("[\\\\*?\\[\\]{},]", "\\\\$0") + "*");
+                if (output != null) {
+                    for (String line : output.split("\\r?\\n")) {
+                        lineHandler.evaluate(line);
+                    }
+                } else {
+                    String failure = executeExternalCommand(dir, "UTF-8", lineHandler,
+                            "hg", "--encoding", "UTF-8", "log", "--template", TEMPLATE, "glob:*");
+                    if (failure != null) {
+                        // nothing is saved, each file is looked up on its own
+                        LOGGER.fine("hg log failed in " + dir + ": " + failure);
+                        return null;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            saved.put(prefix, yearOf);
+            if (savedTips.containsKey(root)) {
+                unsaved.add(root);
+            }
+            return yearOf;
+        }
+
+        // the first caller for a repository reads its cache, the others wait for it
+        private Map<String, Map<String, String>> getSavedYears(final File root) {
+            return once(savedYears, root, new Callable<Map<String, Map<String, String>>>() {
+                public Map<String, Map<String, String>> call() {
+                    return loadSavedYears(root);
+                }
+            });
+        }
+
+        private Map<String, Map<String, String>> loadSavedYears(File root) {
+            // directories are added to it while others are read
+            Map<String, Map<String, String>> saved = new ConcurrentHashMap<String, Map<String, String>>();
+            String tip;
+            try {
+                tip = hg(root, "log", "-r", "tip", "--template", "{rev}:{node}").trim();
+            } catch (IOException e) {
+                LOGGER.fine("Not using the saved years of " + root + ": " + e);
+                return saved;
+            }
+            if (!tip.matches("\\d+:[0-9a-f]{40}")) {
+                // not saved by flush() either
+                return saved;
+            }
+            savedTips.put(root, tip);
+            YearCache cache = YearCache.load(new File(new File(root, ".hg"), CACHE_NAME));
+            String cached = cache.getHead();
+            if (!tip.equals(cached)) {
+                unsaved.add(root);
+            }
+            if (cached == null) {
+                return saved;
+            }
+            // "dir/" stands for a directory that was read, "dir/name" for a file in it
+            for (Map.Entry<String, String> e : cache.getYears().entrySet()) {
+                String path = e.getKey();
+                int slash = path.lastIndexOf('/') + 1;
+                Map<String, String> yearOf = saved.get(path.substring(0, slash));
+                if (yearOf == null) {
+                    yearOf = new HashMap<String, String>();
+                    saved.put(path.substring(0, slash), yearOf);
+                }
+                if (slash < path.length()) {
+                    yearOf.put(path.substring(slash), e.getValue());
+                }
+            }
+            if (!cached.equals(tip) && !update(root, cached, saved)) {
+                saved.clear();
+            }
+            return saved;
+        }
+
+        /**
+         * Applies the changesets after cached to saved.  Returns false if cached
+         * is not in the repository any more, e.g. after a strip.
+         */
+        private boolean update(File root, String cached, Map<String, Map<String, String>> saved) {
+            int colon = cached.indexOf(':');
+            try {
+                int rev = Integer.parseInt(cached.substring(0, colon));
+                String node = hg(root, "log", "-r", String.valueOf(rev), "--template", "{node}").trim();
+                if (!node.equals(cached.substring(colon + 1))) {
+                    return false;
+                }
+                String output = hg(root, "log", "-r", (rev + 1) + ":tip", "--template", TEMPLATE);
+                // oldest changeset first, so later years overwrite earlier ones
+                String year = null;
+                for (String line : output.split("\\r?\\n")) {
+                    if (line.startsWith(DATE_MARK)) {
+                        year = line.length() >= 5 ? line.substring(1, 5) : null;
+                    } else if (year != null && line.length() > 0) {
+                        int slash = line.lastIndexOf('/') + 1;
+                        Map<String, String> yearOf = saved.get(line.substring(0, slash));
+                        if (yearOf != null) {
+                            yearOf.put(line.substring(slash), year);
+                        }
+                    }
+                }
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        public synchronized void flush() {
+            for (File root : unsaved) {
+                YearCache cache = new YearCache(new File(new File(root, ".hg"), CACHE_NAME));
+                cache.setHead(savedTips.get(root));
+                for (Map.Entry<String, Map<String, String>> dir : getSavedYears(root).entrySet()) {
+                    cache.getYears().put(dir.getKey(), "");
+                    for (Map.Entry<String, String> file : dir.getValue().entrySet()) {
+                        cache.getYears().put(dir.getKey() + file.getKey(), file.getValue());
+                    }
+                }
+                cache.save();
+            }
+            unsaved.clear();
+            savedYears.clear();
+            savedTips.clear();
+            super.flush();
+        }
+
+        // the output of an hg command, run on the command server if there is one
+        private String hg(File root, String... args) throws IOException {
+            String output = executeHgCommand(root, args);
+            if (output == null) {
+                String[] command = new String[args.length + 3];
+                command[0] = "hg";
+                command[1] = "--encoding";
+                command[2] = "UTF-8";
+                System.arraycopy(args, 0, command, 3, args.length);
+                final StringBuilder sb = new StringBuilder();
+                String failure = executeExternalCommand(root, "UTF-8", new UnaryBooleanFunction<String>() {
+                    public boolean evaluate(String line) {
+                        sb.append(line).append('\n');
+                        return true;
+                    }
+                }, command);
+                if (failure != null) {
+                    throw new IOException("hg " + args[0] + " failed in " + root + ": " + failure);
+                }
+                output = sb.toString();
+            }
+            return output;
+        }
+
+        public void listFiles(File root, UnaryBooleanFunction<File> handler) throws IOException {
+            listRecords(root, handler, "hg", "--encoding", "UTF-8", "files", "-0", ".");
+        }
+    },
+
+    /**
+     * The whole history of a repository is read the first time a file in it is looked
+     * up, from the .git directory itself or else with a single git log; every lookup
+     * after that is a map lookup.
+     */
+    GIT {
+        // work tree root -> (path relative to the root -> year of the last change)
+        private final ConcurrentMap<File, Future<Map<String, String>>> years =
+                new ConcurrentHashMap<File, Future<Map<String, String>>>();
+
+        protected String lookup(String f) {
+            File file;
+            try {
+                file = new File(f).getCanonicalFile();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            final File root = findRoot(file.getParentFile(), ".git");
+            if (root == null) {
+                return null;
+            }
+            Map<String, String> yearOf = once(years, root, new Callable<Map<String, String>>() {
+                public Map<String, String> call() {
+                    return readHistory(root);
+                }
+            });
+            if (yearOf == null) {
+                return null;
+            }
+            String path = file.getPath().substring(root.getPath().length() + 1);
+            return yearOf.get(path.replace(File.separatorChar, '/'));
+        }
+
+        public void flush() {
+            // the history is saved as soon as it is read
+            years.clear();
+            super.flush();
+        }
+
+        /**
+         * The files come from the index, read from the .git directory itself or else
+         * with "git ls-files".
+         */
+        public void listFiles(final File root, final UnaryBooleanFunction<File> handler) throws IOException {
+            File dir = root.getCanonicalFile();
+            File top = findRoot(dir, ".git");
+            if (top == null) {
+                throw new IOException(root + " is not in a git work tree");
+            }
+            final String prefix = dir.equals(top) ? ""
+                    : dir.getPath().substring(top.getPath().length() + 1).replace(File.separatorChar, '/') + '/';
+            final int[] count = new int[1];
+            try {
+                GitRepository.open(top).readIndex(new UnaryBooleanFunction<String>() {
+                    public boolean evaluate(String path) {
+                        if (!path.startsWith(prefix)) {
+                            return true;
+                        }
+                        count[0]++;
+                        return handler.evaluate(new File(root, path.substring(prefix.length())));
+                    }
+                });
+                return;
+            } catch (IOException e) {
+                if (count[0] > 0) {
+                    throw e;
+                }
+                LOGGER.fine("Using the git command for the index of " + top + ": " + e);
+            }
+            listRecords(root, handler, "git", "ls-files", "-z");
+        }
+
+        /**
+         * The years are saved in the .git directory together with the commit they were
+         * read at; later runs only read the commits added since then.
+         */
+        private Map<String, String> readHistory(File root) {
+            GitRepository repo = null;
+            try {
+                repo = GitRepository.open(root);
+            } catch (IOException e) {
+                LOGGER.fine("Using the git command for " + root + ": " + e);
+            }
+            File gitDir = new File(root, ".git");
+            String head = resolveHead(repo, root);
+            if (head == null || !gitDir.isDirectory()) {
+                // no commits yet, or a work tree whose .git is a file
+                return head == null ? new HashMap<String, String>() : readLog(repo, root, head, null);
+            }
+            YearCache cache = YearCache.load(new File(gitDir, CACHE_NAME));
+            String cached = cache.getHead();
+            if (head.equals(cached)) {
+                return cache.getYears();
+            }
+            Map<String, String> yearOf = cache.getYears();
+            boolean incremental = cached != null && isAncestor(repo, root, cached, head);
+            Map<String, String> read = readLog(repo, root, head, incremental ? cached : null);
+            if (read == null) {
+                // the saved years stay as they were, to be brought up to date next time
+                return null;
+            }
+            if (!incremental) {
+                yearOf.clear();
+            }
+            yearOf.putAll(read);
+            cache.setHead(head);
+            cache.save();
+            return yearOf;
+        }
+
+        // the commit HEAD points to, or null
+        private String resolveHead(GitRepository repo, File root) {
+            if (repo != null) {
+                try {
+                    return repo.resolveHead();
+                } catch (IOException e) {
+                    LOGGER.fine("Using the git command for HEAD of " + root + ": " + e);
+                }
+            }
+            try {
+                String head = executeExternalCommand(root, "git", "rev-parse", "--verify", "-q", "HEAD").trim();
+                return head.matches("[0-9a-f]{40,64}") ? head : null;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        // true if commit is reachable from head
+        private boolean isAncestor(GitRepository repo, File root, String commit, String head) {
+            if (repo != null) {
+                try {
+                    return repo.isAncestor(commit, head);
+                } catch (IOException e) {
+                    LOGGER.fine("Using the git command for history of " + root + ": " + e);
+                }
+            }
+            try {
+                // lists commits of commit that head doesn't have; fails if commit is gone
+                final boolean[] listed = {false};
+                String failure = executeExternalCommand(root, null, new UnaryBooleanFunction<String>() {
+                    public boolean evaluate(String line) {
+                        listed[0] |= line.trim().length() > 0;
+                        return true;
+                    }
+                }, "git", "rev-list", "-n", "1", commit, "^" + head);
+                return failure == null && !listed[0];
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        // path -> year of the newest commit in head but not in exclude (if not null) that changed it,
+        // or null if the history could not be read
+        private Map<String, String> readLog(GitRepository repo, File root, String head, String exclude) {
+            if (repo != null) {
+                try {
+                    // a full walk can stop once every tracked file is found
+                    return repo.readYears(head, exclude, exclude == null ? repo.readIndex() : null);
+                } catch (IOException e) {
+                    LOGGER.fine("Using the git command for history of " + root + ": " + e);
+                } catch (RuntimeException e) {
+                    // whatever else a damaged repository does to the reader, git may still cope
+                    LOGGER.fine("Using the git command for history of " + root + ": " + e);
+                }
+            }
+            final Map<String, String> yearOf = new HashMap<String, String>();
+            List<String> args = new ArrayList<String>(Arrays.asList("git", "-c", "core.quotePath=false", "log",
+                    "--name-only", "--no-renames", "--format=%x00%ad", "--date=short"));
+            args.add(exclude == null ? head : exclude + ".." + head);
+            try {
+                // newest commits come first, so the first year seen for a path is the one we want.
+                String failure = executeExternalCommand(root, "UTF-8", new UnaryBooleanFunction<String>() {
+                    private String year = null;
+
+                    public boolean evaluate(String line) {
+                        if (line.startsWith(DATE_MARK)) {
+                            year = line.length() >= 5 ? line.substring(1, 5) : null;
+                        } else if (year != null && line.length() > 0 && !yearOf.containsKey(line)) {
+                            yearOf.put(line, year);
+                        }
+                        return true;
+                    }
+                }, args.toArray(new String[args.size()]));
+                if (failure != null) {
+                    LOGGER.warning("git log failed in " + root + ": " + failure);
+                    return null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            return yearOf;
+        }
     };
 
-    public abstract String getLastModifiedYear(String f);
+    // marks the date lines in git and hg log output, file names come in between
+    private static final String DATE_MARK = "\u0000";
+
+    // name of the year cache kept in the .git or .hg directory
+    private static final String CACHE_NAME = "licensetool-years";
+
+    // directory -> (file name -> year of the last change), filled one directory at a time
+    private final ConcurrentMap<File, Future<Map<String, String>>> directoryYears =
+            new ConcurrentHashMap<File, Future<Map<String, String>>>();
+
+    /**
+     * The years of all the files in the directory of f are looked up together the
+     * first time one of them is asked for.  If that is not possible, f is looked up
+     * on its own.  Only lookups in the same directory wait for each other.
+     */
+    public String getLastModifiedYear(String f) {
+        File file = new File(f).getAbsoluteFile();
+        final File dir = file.getParentFile();
+        Map<String, String> yearOf = once(directoryYears, dir, new Callable<Map<String, String>>() {
+            public Map<String, String> call() {
+                return lookupDirectory(dir);
+            }
+        });
+        if (yearOf != null) {
+            return yearOf.get(file.getName());
+        }
+        return lookup(f);
+    }
+
+    /**
+     * The value of key in values, computed by compute the first time it is asked
+     * for.  Callers asking for the same key meanwhile wait for that computation,
+     * callers asking for other keys don't.  Null if the wait was interrupted.
+     */
+    private static <K, V> V once(ConcurrentMap<K, Future<V>> values, K key, Callable<V> compute) {
+        Future<V> value = values.get(key);
+        if (value == null) {
+            FutureTask<V> task = new FutureTask<V>(compute);
+            value = values.putIfAbsent(key, task);
+            if (value == null) {
+                value = task;
+                task.run();
+            }
+        }
+        try {
+            return value.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // try again next time, as if it was never asked for
+            values.remove(key, value);
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Saves what was looked up so far for the next run and forgets it, so that a
+     * later scan in the same JVM looks the years up again, and stops the hg
+     * command servers.  Called once the scan is done.
+     */
+    public void flush() {
+        directoryYears.clear();
+        HgCommandServer.shutdown();
+    }
+
+    /**
+     * Passes the files under version control below the directory root to handler,
+     * stopping early if it returns false.  This is much cheaper than listing every
+     * directory on big trees.  Throws IOException if the files can't be listed.
+     */
+    public void listFiles(File root, UnaryBooleanFunction<File> handler) throws IOException {
+        throw new IOException("Listing files is not supported for " + this);
+    }
+
+    /**
+     * Looks up the year of the last change of a single file.
+     */
+    protected abstract String lookup(String f);
+
+    /**
+     * Looks up the years of the last change of all the files directly in dir,
+     * keyed by file name.  Returns null if that can't be done in one go.
+     */
+    protected Map<String, String> lookupDirectory(File dir) {
+        return null;
+    }
 
     private static String executeExternalCommand(File dir, String... args) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        executeExternalCommand(dir, null, new UnaryBooleanFunction<String>() {
+            public boolean evaluate(String line) {
+                sb.append(line).append('\n');
+                return true;
+            }
+        }, args);
+        return sb.toString();
+    }
+
+    /**
+     * Runs a command and passes its output to lineHandler one line at a time, so
+     * that large outputs are never held in memory.  Reading stops early if the
+     * handler returns false.  What the command writes to its error output is kept
+     * apart, so warnings never reach the handler.
+     *
+     * @param charset charset of the output, or null for the platform default.
+     * @return null if the command succeeded or the handler stopped it, otherwise
+     *         what it wrote to its error output.
+     */
+    private static String executeExternalCommand(File dir, String charset,
+                                                 UnaryBooleanFunction<String> lineHandler,
+                                                 String... args) throws IOException {
         ProcessBuilder pb = new ProcessBuilder(args);
-        pb.redirectErrorStream(true);
         if (dir != null) {
             pb.directory(dir);
         }
         Process process = pb.start();
         process.getOutputStream().close();
-        BufferedReader r = new BufferedReader(new InputStreamReader(
-                process.getInputStream()));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = r.readLine()) != null) {
-            sb.append(line + "\n");
+        ErrorReader error = new ErrorReader(process.getErrorStream(), charset);
+        error.start();
+        boolean stopped = false;
+        BufferedReader r = new BufferedReader(charset == null
+                ? new InputStreamReader(process.getInputStream())
+                : new InputStreamReader(process.getInputStream(), charset));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!lineHandler.evaluate(line)) {
+                    stopped = true;
+                    process.destroy();
+                    break;
+                }
+            }
+        } finally {
+            r.close();
+        }
+        int exitCode = 0;
+        try {
+            exitCode = process.waitFor();
+            error.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        String message = error.getText().trim();
+        if (stopped) {
+            return null;
+        }
+        if (exitCode != 0) {
+            return message.length() == 0 ? "exit code " + exitCode : message;
+        }
+        if (message.length() > 0) {
+            LOGGER.fine(args[0] + " in " + dir + ": " + message);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the error output of a command on its own thread, so that the command
+     * never blocks on a full pipe.  Only the first MAX_ERROR characters are kept.
+     */
+    private static class ErrorReader extends Thread {
+        private static final int MAX_ERROR = 8192;
+        private final InputStream in;
+        private final String charset;
+        private final StringBuffer text = new StringBuffer();
+
+        ErrorReader(InputStream in, String charset) {
+            super("VCS command stderr");
+            setDaemon(true);
+            this.in = in;
+            this.charset = charset;
+        }
+
+        public void run() {
+            try {
+                Reader r = charset == null ? new InputStreamReader(in) : new InputStreamReader(in, charset);
+                try {
+                    char[] buf = new char[1024];
+                    int n;
+                    while ((n = r.read(buf)) != -1) {
+                        if (text.length() < MAX_ERROR) {
+                            text.append(buf, 0, Math.min(n, MAX_ERROR - text.length()));
+                        }
+                    }
+                } finally {
+                    r.close();
+                }
+            } catch (IOException e) {
+                // the process is gone
+            }
         }
-        process.getInputStream().close();
+
+        String getText() {
+            return text.toString();
+        }
+    }
+
+    /**
+     * Runs a command that prints NUL terminated paths relative to root, like
+     * "git ls-files -z", and passes them to handler as files below root.
+     */
+    private static void listRecords(File root, UnaryBooleanFunction<File> handler,
+                                    String... args) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.directory(root);
+        Process process = pb.start();
+        process.getOutputStream().close();
+        StringBuilder record = new StringBuilder();
+        boolean stopped = false;
+        Reader r = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            int c;
+            while ((c = r.read()) != -1) {
+                if (c != 0) {
+                    record.append((char) c);
+                } else if (handler.evaluate(new File(root, record.toString()))) {
+                    record.setLength(0);
+                } else {
+                    stopped = true;
+                    process.destroy();
+                    break;
+                }
+            }
+        } finally {
+            r.close();
+        }
+        if (stopped) {
+            process.getErrorStream().close();
+            return;
+        }
+        // error messages are short, so stderr can be read once stdout is done
+        String error = readFully(process.getErrorStream());
         try {
-            process.waitFor();
+            if (process.waitFor() != 0) {
+                throw new IOException(args[0] + " failed in " + root + ": " + error.trim());
+            }
         } catch (InterruptedException ex) {
         }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Reader r = new InputStreamReader(in);
+        try {
+            char[] buf = new char[1024];
+            int n;
+            while ((n = r.read(buf)) != -1) {
+                sb.append(buf, 0, n);
+            }
+        } finally {
+            r.close();
+        }
         return sb.toString();
     }
 
+    /**
+     * Runs an hg command on a resident command server for the repository at root.
+     * Returns null if no command server could run it.
+     */
+    private static String executeHgCommand(File root, String... args) {
+        try {
+            return HgCommandServer.runCommand(root, args);
+        } catch (HgCommandServer.CommandFailedException e) {
+            LOGGER.fine("Running hg itself, the command server in " + root + " failed: " + e.getMessage());
+            return null;
+        } catch (IOException e) {
+            LOGGER.fine("No hg command server for " + root + ", starting hg for each command: " + e);
+            return null;
+        }
+    }
+
     public static VCS sniffVCS(File f) {
         if(!f.isDirectory()) {
-            sniffVCS(f.getParentFile());
+            return sniffVCS(f.getParentFile());
         }
         if(checkVCSinDir(f, "CVS")) {
             return VCS.CVS;
@@ -160,6 +1054,18 @@ public enum VCS {
             return VCS.SVN;
         } else if(checkVCSinRoot(f,".hg")) {
             return VCS.HG;
+        } else if(checkVCSinRoot(f,".git")) {
+            return VCS.GIT;
+        }
+        return null;
+    }
+
+    // the closest ancestor of dir (or dir itself) that has a child named vcs
+    private static File findRoot(File dir, final String vcs) {
+        for (File d = dir; d != null; d = d.getParentFile()) {
+            if (checkVCSinDir(d, vcs)) {
+                return d;
+            }
         }
         return null;
     }
@@ -183,4 +1089,6 @@ public enum VCS {
         }
         return false;
     }
+
+    private static final Logger LOGGER = Logger.getLogger(VCS.class.getName());
 }
@@ -0,0 +1,171 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.file;
+
+import org.jvnet.licensetool.util.ToolUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Years of the last change of files, as found by a VCS, saved between runs.
+ * The head tells which revision of the repository the years are up to date with,
+ * so that the next run only needs to look at the history after it.
+ * <p>
+ * The file is plain UTF-8 text: a version line, a "head" line, and then
+ * one "year TAB path" line per file.
+ */
+class YearCache {
+    private static final String VERSION = "# licensetool years 1";
+
+    private final File file;
+    private String head = null;
+    private final Map<String, String> years = new HashMap<String, String>();
+
+    YearCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the cache saved in file.  Returns an empty cache if there is none
+     * or it can't be read.
+     */
+    static YearCache load(File file) {
+        YearCache cache = new YearCache(file);
+        if (!file.isFile()) {
+            return cache;
+        }
+        try {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line = r.readLine();
+                if (!VERSION.equals(line)) {
+                    return cache;
+                }
+                line = r.readLine();
+                if (line == null || !line.startsWith("head ")) {
+                    return cache;
+                }
+                String head = line.substring("head ".length());
+                while ((line = r.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab == -1) {
+                        // truncated
+                        cache.years.clear();
+                        return cache;
+                    }
+                    cache.years.put(line.substring(tab + 1), line.substring(0, tab));
+                }
+                cache.head = head;
+            } finally {
+                r.close();
+            }
+        } catch (IOException e) {
+            LOGGER.fine("Could not read " + file + ": " + e);
+            cache.years.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * The revision the years are up to date with, or null if nothing was cached.
+     */
+    String getHead() {
+        return head;
+    }
+
+    void setHead(String head) {
+        this.head = head;
+    }
+
+    /**
+     * path -> year.  The map is live, changes to it are saved by save().
+     */
+    Map<String, String> getYears() {
+        return years;
+    }
+
+    /**
+     * Writes the cache next to its file and renames it over the old one.
+     * Failures are logged, a missing cache only costs time.
+     */
+    void save() {
+        File temp = null;
+        try {
+            temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+            try {
+                w.write(VERSION);
+                w.write('\n');
+                w.write("head " + head);
+                w.write('\n');
+                for (Map.Entry<String, String> e : years.entrySet()) {
+                    w.write(e.getValue());
+                    w.write('\t');
+                    w.write(e.getKey());
+                    w.write('\n');
+                }
+            } finally {
+                w.close();
+            }
+            ToolUtil.moveOver(temp, file);
+            temp = null;
+        } catch (IOException e) {
+            LOGGER.fine("Could not save " + file + ": " + e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(YearCache.class.getName());
+}
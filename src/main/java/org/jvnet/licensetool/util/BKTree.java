@@ -0,0 +1,210 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * An index of strings for finding the ones close to a key in edit distance,
+ * without computing the distance to all of them.
+ *
+ * <p>
+ * This is a Burkhard-Keller tree: the children of a node are keyed by their
+ * distance to it.  By the triangle inequality, a string within r of the key
+ * can only be under a child whose distance to the node is within r of the
+ * distance from the key to the node, so the other children are not looked at.
+ * Distances are computed with a bound, so strings far from the key cost little.
+ *
+ * <p>
+ * The tree is built once and never changes afterwards, so it can be searched
+ * by any number of threads at the same time.
+ */
+public class BKTree {
+    private static class Node {
+        final String value;
+        // distance to value -> child
+        final TreeMap<Integer, Node> children = new TreeMap<Integer, Node>();
+
+        Node(String value) {
+            this.value = value;
+        }
+
+        // largest distance of a child to value, or -1
+        int maxEdge() {
+            return children.isEmpty() ? -1 : children.lastKey();
+        }
+    }
+
+    /**
+     * A string found in the tree, with its distance to the key.
+     */
+    public static class Match {
+        public final String value;
+        public final int distance;
+
+        Match(String value, int distance) {
+            this.value = value;
+            this.distance = distance;
+        }
+
+        public String toString() {
+            return value + " (" + distance + ")";
+        }
+    }
+
+    private static final Comparator<Match> BY_DISTANCE = new Comparator<Match>() {
+        public int compare(Match a, Match b) {
+            return a.distance - b.distance;
+        }
+    };
+
+    // a radius larger than any distance, small enough not to overflow
+    private static final int UNBOUNDED = Integer.MAX_VALUE / 4;
+
+    private final Node root;
+    private final int size;
+
+    /**
+     * Builds the tree.  Duplicate strings are kept only once.
+     */
+    public BKTree(Collection<String> values) {
+        Node r = null;
+        int n = 0;
+        for (String v : values) {
+            if (r == null) {
+                r = new Node(v);
+                n++;
+                continue;
+            }
+            Node node = r;
+            while (true) {
+                int d = EditDistance.editDistance(v, node.value);
+                if (d == 0) {
+                    break;
+                }
+                Node child = node.children.get(d);
+                if (child == null) {
+                    node.children.put(d, new Node(v));
+                    n++;
+                    break;
+                }
+                node = child;
+            }
+        }
+        root = r;
+        size = n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * All the strings within radius of key, closest first.
+     */
+    public List<Match> findWithin(String key, int radius) {
+        List<Match> result = new ArrayList<Match>();
+        if (root == null || radius < 0) {
+            return result;
+        }
+        radius = Math.min(radius, UNBOUNDED);
+        List<Node> todo = new ArrayList<Node>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            // beyond maxEdge+radius no child can qualify, so the exact distance isn't needed
+            int d = EditDistance.editDistance(key, node.value, Math.max(radius, node.maxEdge() + radius));
+            if (d <= radius) {
+                result.add(new Match(node.value, d));
+            }
+            todo.addAll(node.children.subMap(d - radius, d + radius + 1).values());
+        }
+        Collections.sort(result, BY_DISTANCE);
+        return result;
+    }
+
+    /**
+     * The k strings closest to key, closest first.  Of strings at the same
+     * distance, any may be returned.
+     */
+    public List<Match> findNearest(String key, int k) {
+        List<Match> result = new ArrayList<Match>();
+        if (root == null || k <= 0) {
+            return result;
+        }
+        // the best k so far, farthest first
+        PriorityQueue<Match> best = new PriorityQueue<Match>(k, Collections.reverseOrder(BY_DISTANCE));
+        List<Node> todo = new ArrayList<Node>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            // only strings closer than the k-th best so far matter
+            int radius = best.size() < k ? UNBOUNDED : best.peek().distance - 1;
+            if (radius < 0) {
+                // k exact matches
+                break;
+            }
+            int d = radius == UNBOUNDED ? EditDistance.editDistance(key, node.value)
+                    : EditDistance.editDistance(key, node.value, Math.max(radius, node.maxEdge() + radius));
+            if (d <= radius) {
+                best.add(new Match(node.value, d));
+                if (best.size() > k) {
+                    best.poll();
+                }
+                if (best.size() == k) {
+                    radius = best.peek().distance - 1;
+                }
+            }
+            if (radius >= 0) {
+                todo.addAll(node.children.subMap(d - radius, d + radius + 1).values());
+            }
+        }
+        result.addAll(best);
+        Collections.sort(result, BY_DISTANCE);
+        return result;
+    }
+}
@@ -63,7 +63,7 @@ public class CopyrightParser {
 
     //private static Pattern year_pattern = Pattern.compile("([0-9]{4})((, |-)([0-9]{4}))?(,)?");
     private static Pattern year_pattern =
-            Pattern.compile("([0-9]*)(?:, |-)*([0-9]*)(?:[, ])?");
+            Pattern.compile("([0-9]*)(?:, |-)*([0-9]*)(?:,? ?)");
 
     private static final Pattern reservedRights =
             Pattern.compile("All rights reserved[.]?", Pattern.CASE_INSENSITIVE);
@@ -72,15 +72,22 @@ public class CopyrightParser {
     
     public static void parseCopyright(CommentBlock commentBlock, ParsedFile pfile) {
         for (String line : ToolUtil.splitToLines(commentBlock.comment())) {
-            Matcher cp1 = copyright_pattern.matcher(line);
+            if (line.length() > ProcessingBudget.MAX_REGEX_INPUT) {
+                // too long for the regular expressions, scan it by hand.
+                if (parseLongLine(commentBlock, pfile, line)) {
+                    break;
+                }
+                continue;
+            }
+            Matcher cp1 = copyright_pattern.matcher(ProcessingBudget.guard(line));
             if (cp1.find()) {
                 commentBlock.addTag(copyright_tag);
                 commentBlock.addTag(COPYRIGHT_BLOCK_TAG);
-                Matcher m = copyright_year_pattern.matcher(line);
+                Matcher m = copyright_year_pattern.matcher(ProcessingBudget.guard(line));
                 if (m.find()) {
                     CommentBlock.Copyright copyright = new CommentBlock.Copyright();
                     String year = m.group(1);
-                    Matcher year_matcher = year_pattern.matcher(year);
+                    Matcher year_matcher = year_pattern.matcher(ProcessingBudget.guard(year));
                     if (year_matcher.matches()) {
                         String startYear = year_matcher.group(1);
                         copyright.setStartYear(startYear);
@@ -93,15 +100,7 @@ public class CopyrightParser {
                     }
 
                     String remaining = line.substring(m.end(1));
-                    Matcher rightsMatcher = reservedRights.matcher(remaining);
-                    String licensor;
-                    if (rightsMatcher.find()) {
-                        licensor = remaining.substring(0, rightsMatcher.start() - 1);
-                    } else {
-                        //treat rest of the line as the licensor.
-                        licensor = remaining;                                                                
-                    }
-                    copyright.setLicensor(licensor.trim());
+                    setLicensor(copyright, remaining);
                     commentBlock.setCopyright(copyright);
                     break;
                 }
@@ -109,6 +108,144 @@ public class CopyrightParser {
         }
     }
 
+    private static void setLicensor(CommentBlock.Copyright copyright, String remaining) {
+        Matcher rightsMatcher = reservedRights.matcher(ProcessingBudget.guard(remaining));
+        String licensor;
+        if (rightsMatcher.find()) {
+            licensor = remaining.substring(0, rightsMatcher.start() - 1);
+        } else {
+            //treat rest of the line as the licensor.
+            licensor = remaining;
+        }
+        copyright.setLicensor(licensor.trim());
+    }
+
+    /**
+     * Linear time equivalent of the regular expression path above, used for
+     * lines longer than ProcessingBudget.MAX_REGEX_INPUT.
+     * Returns true if a copyright statement was found on the line.
+     */
+    private static boolean parseLongLine(CommentBlock commentBlock, ParsedFile pfile, String line) {
+        if (!containsCopyrightKeyword(line)) {
+            return false;
+        }
+        commentBlock.addTag(copyright_tag);
+        commentBlock.addTag(COPYRIGHT_BLOCK_TAG);
+        int from = 0;
+        while (true) {
+            int index = indexOfCopyright(line, from);
+            if (index == -1) {
+                return false;
+            }
+            // [Cc]opyright[,]? (?:\([Cc]\) )?([-0-9, ]+)
+            int pos = index + copyright_tag.length();
+            if (pos < line.length() && line.charAt(pos) == ',' && pos + 1 < line.length() && line.charAt(pos + 1) == ' ') {
+                pos++;
+            }
+            if (pos < line.length() && line.charAt(pos) == ' ') {
+                pos++;
+                if (line.startsWith("(c) ", pos) || line.startsWith("(C) ", pos)) {
+                    pos += 4;
+                }
+                int yearEnd = pos;
+                while (yearEnd < line.length() && isYearChar(line.charAt(yearEnd))) {
+                    yearEnd++;
+                }
+                if (yearEnd > pos) {
+                    CommentBlock.Copyright copyright = new CommentBlock.Copyright();
+                    if (!parseYears(line.substring(pos, yearEnd), copyright)) {
+                        trace("Error: Year pattern not recognized in a long line in file:" + pfile.getPath());
+                    }
+                    setLicensor(copyright, line.substring(yearEnd));
+                    commentBlock.setCopyright(copyright);
+                    return true;
+                }
+            }
+            from = index + 1;
+        }
+    }
+
+    // \b[Cc]opyright[,]?\b|\([Cc]\)
+    private static boolean containsCopyrightKeyword(String line) {
+        if (line.contains("(c)") || line.contains("(C)")) {
+            return true;
+        }
+        int from = 0;
+        int index;
+        while ((index = indexOfCopyright(line, from)) != -1) {
+            int end = index + copyright_tag.length();
+            boolean wordStart = index == 0 || !isWordChar(line.charAt(index - 1));
+            boolean wordEnd = end == line.length() || !isWordChar(line.charAt(end));
+            if (wordStart && wordEnd) {
+                return true;
+            }
+            from = index + 1;
+        }
+        return false;
+    }
+
+    private static int indexOfCopyright(String line, int from) {
+        int upper = line.indexOf("Copyright", from);
+        int lower = line.indexOf("copyright", from);
+        if (upper == -1) {
+            return lower;
+        }
+        if (lower == -1) {
+            return upper;
+        }
+        return Math.min(upper, lower);
+    }
+
+    /**
+     * Linear time equivalent of year_pattern.matches().
+     */
+    private static boolean parseYears(String year, CommentBlock.Copyright copyright) {
+        int pos = 0;
+        int start = pos;
+        while (pos < year.length() && isDigit(year.charAt(pos))) {
+            pos++;
+        }
+        String startYear = year.substring(start, pos);
+        while (true) {
+            if (year.startsWith(", ", pos)) {
+                pos += 2;
+            } else if (year.startsWith("-", pos)) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        start = pos;
+        while (pos < year.length() && isDigit(year.charAt(pos))) {
+            pos++;
+        }
+        String endYear = year.substring(start, pos);
+        // the list of years the templates write ends with ", "
+        if (year.startsWith(", ", pos)) {
+            pos += 2;
+        } else if (pos < year.length() && (year.charAt(pos) == ',' || year.charAt(pos) == ' ')) {
+            pos++;
+        }
+        if (pos != year.length()) {
+            return false;
+        }
+        copyright.setStartYear(startYear);
+        copyright.setEndYear(endYear);
+        return true;
+    }
+
+    private static boolean isYearChar(char c) {
+        return c == '-' || c == ',' || c == ' ' || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
     private static void trace(String msg) {
         LOGGER.fine(msg);
     }
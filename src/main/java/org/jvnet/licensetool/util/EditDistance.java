@@ -42,6 +42,8 @@ package org.jvnet.licensetool.util;
 
 import java.util.Collection;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Computes the string edit distance.
@@ -50,6 +52,14 @@ import java.util.Arrays;
  * Refer to a computer science text book for the definition
  * of the "string edit distance".
  *
+ * <p>
+ * The full distance is computed with the bit-parallel algorithm of Myers
+ * (as extended to edit distance by Hyyr&ouml;), which handles 64 characters
+ * of the shorter string per step.  When the caller only cares whether the
+ * distance is within some bound, only a band of the classic matrix around its
+ * diagonal is computed (Ukkonen), and the computation stops as soon as the
+ * bound can't be met.
+ *
  * @author
  *     Kohsuke Kawaguchi (kohsuke.kawaguchi@sun.com)
  */
@@ -59,10 +69,35 @@ public class EditDistance {
      * Computes the edit distance between two strings.
      *
      * <p>
-     * The complexity is O(nm) where n=a.length() and m=b.length().
+     * The complexity is O(nm/64) where n=a.length() and m=b.length().
      */
     public static int editDistance( String a, String b ) {
-        return new EditDistance(a,b).calc();
+        return bitParallel(a, b, Integer.MAX_VALUE - 1);
+    }
+
+    /**
+     * Computes the edit distance between two strings if it is at most
+     * <code>maxDistance</code>.
+     *
+     * <p>
+     * The complexity is O(k*min(n,m)) where k=maxDistance, and the computation
+     * stops early once the distance is known to be larger.
+     *
+     * @return the edit distance, or maxDistance+1 if it is larger than maxDistance.
+     */
+    public static int editDistance( String a, String b, int maxDistance ) {
+        if (maxDistance < 0) {
+            return 0;
+        }
+        if (Math.abs(a.length() - b.length()) > maxDistance) {
+            return maxDistance + 1;
+        }
+        int m = Math.min(a.length(), b.length());
+        // one bit-parallel step costs about as much as BAND_CELLS_PER_WORD cells of the band
+        if (2L * maxDistance + 1 <= (long) blocks(m) * BAND_CELLS_PER_WORD) {
+            return banded(a, b, maxDistance);
+        }
+        return bitParallel(a, b, maxDistance);
     }
 
     /**
@@ -80,61 +115,162 @@ public class EditDistance {
      * <code>key</code> and returns it.
      *
      * @return null if group.length==0.
+     * @see BKTree for looking up many keys in the same large group.
      */
     public static String findNearest( String key, Collection<String> group ) {
         int c = Integer.MAX_VALUE;
         String r = null;
 
         for (String s : group) {
-            int ed = editDistance(key,s);
+            // only a closer string matters, so give up on s once it can't be
+            int ed = r==null ? editDistance(key,s) : editDistance(key,s,c-1);
             if( c>ed ) {
                 c = ed;
                 r = s;
+                if( c==0 )
+                    break;
             }
         }
         return r;
     }
 
-    /** cost vector. */
-    private int[] cost;
-    /** back buffer. */
-    private int[] back;
+    private static final int BAND_CELLS_PER_WORD = 16;
 
-    /** Two strings to be compared. */
-    private final String a,b;
-
-    private EditDistance( String a, String b ) {
-        this.a=a;
-        this.b=b;
-        cost = new int[a.length()+1];
-        back = new int[a.length()+1]; // back buffer
-
-        for( int i=0; i<=a.length(); i++ )
-            cost[i] = i;
+    private static int blocks(int length) {
+        return (length + 63) / 64;
     }
 
     /**
-     * Swaps two buffers.
+     * The classic dynamic programming over the cells of the matrix at most k away
+     * from its diagonal.  Cells further away have a distance of more than k, so
+     * they can't be on a path of cost k or less.
      */
-    private void flip() {
-        int[] t = cost;
-        cost = back;
-        back = t;
+    private static int banded(String a, String b, int k) {
+        int m = a.length();
+        int n = b.length();
+        int inf = k + 1;
+        int[] back = new int[m + 1];
+        int[] cost = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            back[i] = Math.min(i, inf);
+        }
+        for (int j = 1; j <= n; j++) {
+            int lo = Math.max(1, j - k);
+            int hi = Math.min(m, j + k);
+            cost[lo - 1] = lo == 1 ? Math.min(j, inf) : inf;
+            int rowMin = cost[lo - 1];
+            char c = b.charAt(j - 1);
+            for (int i = lo; i <= hi; i++) {
+                int d = back[i - 1] + (a.charAt(i - 1) == c ? 0 : 1);
+                d = Math.min(d, Math.min(cost[i - 1], back[i]) + 1);
+                if (d > inf) {
+                    d = inf;
+                }
+                cost[i] = d;
+                if (d < rowMin) {
+                    rowMin = d;
+                }
+            }
+            if (hi < m) {
+                // the next row reads this cell as the one above its last cell
+                cost[hi + 1] = inf;
+            }
+            if (rowMin > k) {
+                return inf;
+            }
+            int[] t = cost;
+            cost = back;
+            back = t;
+        }
+        return Math.min(back[m], inf);
     }
 
-    private int min(int a,int b,int c) {
-        return Math.min(a,Math.min(b,c));
-    }
+    /**
+     * Myers' algorithm, with the shorter string split into blocks of 64 bits.  For each
+     * character of the longer string, the vertical differences of a column of the
+     * matrix are updated for all the characters of a block at once.  Stops once the
+     * distance can't be within max, and returns max+1 then.
+     */
+    private static int bitParallel(String a, String b, int max) {
+        String p = a.length() <= b.length() ? a : b;
+        String t = p == a ? b : a;
+        int m = p.length();
+        int n = t.length();
+        if (m == 0) {
+            return Math.min(n, max + 1);
+        }
+        int blocks = blocks(m);
+
+        // which positions of p hold each character
+        long[][] ascii = new long[128][];
+        Map<Character, long[]> others = null;
+        for (int i = 0; i < m; i++) {
+            char c = p.charAt(i);
+            long[] eq;
+            if (c < 128) {
+                eq = ascii[c];
+                if (eq == null) {
+                    eq = ascii[c] = new long[blocks];
+                }
+            } else {
+                if (others == null) {
+                    others = new HashMap<Character, long[]>();
+                }
+                eq = others.get(c);
+                if (eq == null) {
+                    eq = new long[blocks];
+                    others.put(c, eq);
+                }
+            }
+            eq[i >>> 6] |= 1L << (i & 63);
+        }
+        long[] none = new long[blocks];
 
-    private int calc() {
-        for( int j=0; j<b.length(); j++ ) {
-            flip();
-            cost[0] = j+1;
-            for( int i=0; i<a.length(); i++ ) {
-                int match = (a.charAt(i)==b.charAt(j))?0:1;
-                cost[i+1] = min( back[i]+match, cost[i]+1, back[i+1]+1 );
+        // vertical differences of the current column: +1 where pv is set, -1 where mv is
+        long[] pv = new long[blocks];
+        long[] mv = new long[blocks];
+        Arrays.fill(pv, -1L);
+        long last = 1L << ((m - 1) & 63);
+        int score = m;
+
+        for (int j = 0; j < n; j++) {
+            char c = t.charAt(j);
+            long[] eq = c < 128 ? ascii[c] : (others == null ? null : others.get(c));
+            if (eq == null) {
+                eq = none;
+            }
+            // the first row of the matrix grows by one in each column
+            int hin = 1;
+            for (int k = 0; k < blocks; k++) {
+                long e = eq[k];
+                long v = pv[k];
+                long w = mv[k];
+                long xv = e | w;
+                if (hin < 0) {
+                    e |= 1L;
+                }
+                long xh = (((e & v) + v) ^ v) | e;
+                long ph = w | ~(xh | v);
+                long mh = v & xh;
+                long high = k == blocks - 1 ? last : 1L << 63;
+                int hout = (ph & high) != 0 ? 1 : (mh & high) != 0 ? -1 : 0;
+                ph <<= 1;
+                mh <<= 1;
+                if (hin < 0) {
+                    mh |= 1L;
+                } else if (hin > 0) {
+                    ph |= 1L;
+                }
+                pv[k] = mh | ~(xv | ph);
+                mv[k] = ph & xv;
+                hin = hout;
+            }
+            score += hin;
+            // each remaining column lowers the distance by at most one
+            if (score - (n - 1 - j) > max) {
+                return max + 1;
             }
         }
-        return cost[a.length()];
+        return Math.min(score, max + 1);
     }
 }
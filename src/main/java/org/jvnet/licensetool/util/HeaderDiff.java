@@ -0,0 +1,289 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Word level differences between an expected header and the one found in a
+ * file, for telling what is wrong with a header that does not match.
+ *
+ * <p>
+ * The words are aligned by edit distance, computed only in a band around the
+ * diagonal that is widened until the distance fits in it.  Headers that almost
+ * match, the usual case, only cost a narrow band; headers more than
+ * MAX_EDITS words apart are given up on.
+ */
+public class HeaderDiff {
+    public static final int MAX_EDITS = 64;
+    // words of a span shown before it is cut short
+    private static final int MAX_WORDS = 8;
+
+    private static final int MATCH = 0;
+    private static final int REPLACE = 1;
+    private static final int DELETE = 2;
+    private static final int INSERT = 3;
+
+    private HeaderDiff() {
+    }
+
+    private static class Words {
+        final List<String> words = new ArrayList<String>();
+        final List<Integer> lines = new ArrayList<Integer>();
+
+        Words(String text) {
+            int line = 1;
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                char c = i < text.length() ? text.charAt(i) : ' ';
+                if (Character.isWhitespace(c)) {
+                    if (start >= 0) {
+                        words.add(text.substring(start, i));
+                        lines.add(line);
+                        start = -1;
+                    }
+                    if (c == '\n' || (c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n'))) {
+                        line++;
+                    }
+                } else if (start < 0) {
+                    start = i;
+                }
+            }
+        }
+
+        int size() {
+            return words.size();
+        }
+    }
+
+    /**
+     * Describes the first maxSpans runs of words that differ between expected
+     * and found, each with its line in found, counted from the first line of
+     * found as "header line N".  Returns an empty list if they have the same
+     * words, and null if they are too far apart to say.
+     */
+    public static List<String> diff(String expected, String found, int maxSpans) {
+        Words a = new Words(expected);
+        Words b = new Words(found);
+        int prefix = commonPrefix(a, b);
+        int[] ops = align(a, b, prefix);
+        if (ops == null) {
+            return null;
+        }
+        return describe(a, b, prefix, ops, maxSpans);
+    }
+
+    /**
+     * Returns how many words have to be inserted, deleted or replaced to turn
+     * expected into found, or -1 if that is more than MAX_EDITS.
+     */
+    public static int distance(String expected, String found) {
+        Words a = new Words(expected);
+        Words b = new Words(found);
+        int[] ops = align(a, b, commonPrefix(a, b));
+        if (ops == null) {
+            return -1;
+        }
+        int edits = 0;
+        for (int op : ops) {
+            if (op != MATCH) {
+                edits++;
+            }
+        }
+        return edits;
+    }
+
+    private static int commonPrefix(Words a, Words b) {
+        int prefix = 0;
+        while (prefix < a.size() && prefix < b.size() && a.words.get(prefix).equals(b.words.get(prefix))) {
+            prefix++;
+        }
+        return prefix;
+    }
+
+    /**
+     * Aligns the words of a and b after the common prefix, and returns the
+     * operations, or null if they are more than MAX_EDITS apart.
+     */
+    private static int[] align(Words a, Words b, int prefix) {
+        int suffix = 0;
+        while (suffix < a.size() - prefix && suffix < b.size() - prefix
+                && a.words.get(a.size() - 1 - suffix).equals(b.words.get(b.size() - 1 - suffix))) {
+            suffix++;
+        }
+        int n = a.size() - prefix - suffix;
+        int m = b.size() - prefix - suffix;
+        if (Math.abs(n - m) > MAX_EDITS) {
+            return null;
+        }
+        int[] ops = null;
+        for (int band = Math.max(1, Math.abs(n - m)); ops == null; band *= 2) {
+            band = Math.min(band, MAX_EDITS);
+            ops = alignInBand(a.words, b.words, prefix, n, m, band);
+            if (ops == null && band == MAX_EDITS) {
+                return null;
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Aligns a[prefix, prefix+n) with b[prefix, prefix+m) within the band, and
+     * returns the operations, or null if the distance does not fit in the band.
+     */
+    private static int[] alignInBand(List<String> a, List<String> b, int prefix, int n, int m, int band) {
+        if (Math.abs(n - m) > band) {
+            return null;
+        }
+        int width = 2 * band + 1;
+        int inf = Integer.MAX_VALUE / 2;
+        // d[i][j - i + band] is the distance between the first i and j words
+        int[][] d = new int[n + 1][width];
+        for (int i = 0; i <= n; i++) {
+            for (int k = 0; k < width; k++) {
+                int j = i + k - band;
+                if (j < 0 || j > m) {
+                    d[i][k] = inf;
+                } else if (i == 0) {
+                    d[i][k] = j;
+                } else if (j == 0) {
+                    d[i][k] = i;
+                } else {
+                    int cost = a.get(prefix + i - 1).equals(b.get(prefix + j - 1)) ? 0 : 1;
+                    int best = d[i - 1][k] + cost;
+                    if (k + 1 < width) {
+                        best = Math.min(best, d[i - 1][k + 1] + 1);
+                    }
+                    if (k > 0) {
+                        best = Math.min(best, d[i][k - 1] + 1);
+                    }
+                    d[i][k] = best;
+                }
+            }
+        }
+        if (d[n][m - n + band] > band) {
+            return null;
+        }
+        // walk back from the end, then reverse
+        List<Integer> ops = new ArrayList<Integer>();
+        int i = n;
+        int j = m;
+        while (i > 0 || j > 0) {
+            int k = j - i + band;
+            if (i > 0 && j > 0) {
+                int cost = a.get(prefix + i - 1).equals(b.get(prefix + j - 1)) ? 0 : 1;
+                if (d[i][k] == d[i - 1][k] + cost) {
+                    ops.add(cost == 0 ? MATCH : REPLACE);
+                    i--;
+                    j--;
+                    continue;
+                }
+            }
+            if (i > 0 && k + 1 < width && d[i][k] == d[i - 1][k + 1] + 1) {
+                ops.add(DELETE);
+                i--;
+            } else {
+                ops.add(INSERT);
+                j--;
+            }
+        }
+        int[] result = new int[ops.size()];
+        for (int o = 0; o < result.length; o++) {
+            result[o] = ops.get(ops.size() - 1 - o);
+        }
+        return result;
+    }
+
+    private static List<String> describe(Words a, Words b, int prefix, int[] ops, int maxSpans) {
+        List<String> spans = new ArrayList<String>();
+        int i = prefix;
+        int j = prefix;
+        int o = 0;
+        while (o < ops.length) {
+            if (ops[o] == MATCH) {
+                i++;
+                j++;
+                o++;
+                continue;
+            }
+            if (spans.size() == maxSpans) {
+                spans.add("...");
+                break;
+            }
+            int line = j < b.size() ? b.lines.get(j) : (b.size() > 0 ? b.lines.get(b.size() - 1) : 1);
+            int i0 = i;
+            int j0 = j;
+            for (; o < ops.length && ops[o] != MATCH; o++) {
+                if (ops[o] != INSERT) {
+                    i++;
+                }
+                if (ops[o] != DELETE) {
+                    j++;
+                }
+            }
+            StringBuilder sb = new StringBuilder("header line ").append(line).append(": ");
+            if (j == j0) {
+                sb.append("missing ").append(quote(a.words, i0, i));
+            } else if (i == i0) {
+                sb.append("unexpected ").append(quote(b.words, j0, j));
+            } else {
+                sb.append("expected ").append(quote(a.words, i0, i)).append(", found ").append(quote(b.words, j0, j));
+            }
+            spans.add(sb.toString());
+        }
+        return spans;
+    }
+
+    private static String quote(List<String> words, int from, int to) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int k = from; k < to && k < from + MAX_WORDS; k++) {
+            if (k > from) {
+                sb.append(' ');
+            }
+            sb.append(words.get(k));
+        }
+        if (to - from > MAX_WORDS) {
+            sb.append(" ...");
+        }
+        return sb.append('"').toString();
+    }
+}
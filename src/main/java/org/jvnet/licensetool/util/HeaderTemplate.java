@@ -0,0 +1,123 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A copyright text compiled into literal text and year slots, for writing the
+ * header of many files.
+ *
+ * <p>
+ * A line with {@code "YYYY "} gets the start year, or the range up to the end
+ * year, in place of each of them; otherwise a line with {@code "YYYY, "} gets
+ * the start year and the end year, each followed by {@code ", "}.  Most files
+ * get the same years, so the texts are kept by years and the same String is
+ * handed out again, which also makes it cheap to look up further on.
+ */
+public class HeaderTemplate {
+    private static final int RANGE = 0;
+    private static final int LIST = 1;
+    // at most this many rendered texts are kept, then they are all dropped
+    private static final int MAX_RENDERED = 64;
+
+    // literal text before each slot, and after the last one
+    private final List<String> literals = new ArrayList<String>();
+    private final List<Integer> slots = new ArrayList<Integer>();
+    private boolean hasRange = false;
+    private boolean hasList = false;
+    private final Map<String, String> rendered = new HashMap<String, String>();
+
+    public HeaderTemplate(String text) {
+        StringBuilder literal = new StringBuilder();
+        for (String line : ToolUtil.splitToLines(text)) {
+            String slot = line.contains("YYYY ") ? "YYYY " : line.contains("YYYY, ") ? "YYYY, " : null;
+            int from = 0;
+            if (slot != null) {
+                for (int i = line.indexOf(slot); i >= 0; i = line.indexOf(slot, from)) {
+                    literal.append(line, from, i);
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    if (slot.length() == 5) {
+                        slots.add(RANGE);
+                        hasRange = true;
+                    } else {
+                        slots.add(LIST);
+                        hasList = true;
+                    }
+                    from = i + slot.length();
+                }
+            }
+            literal.append(line, from, line.length());
+        }
+        literals.add(literal.toString());
+    }
+
+    /**
+     * Returns the text with the years filled in.  endYear may be null or
+     * empty, or not after startYear, for a single year.
+     */
+    public synchronized String render(String startYear, String endYear) {
+        String key = startYear + "\n" + endYear;
+        String text = rendered.get(key);
+        if (text == null) {
+            boolean toEnd = endYear != null && !endYear.equals("") && (hasRange || hasList)
+                    && endYear.compareTo(startYear) > 0;
+            String range = hasRange ? (toEnd ? startYear + "-" + endYear + " " : startYear + " ") : null;
+            String list = hasList ? (toEnd ? startYear + ", " + endYear + ", " : startYear + ", ") : null;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < slots.size(); i++) {
+                sb.append(literals.get(i));
+                sb.append(slots.get(i) == RANGE ? range : list);
+            }
+            sb.append(literals.get(slots.size()));
+            text = sb.toString();
+            if (rendered.size() >= MAX_RENDERED) {
+                rendered.clear();
+            }
+            rendered.put(key, text);
+        }
+        return text;
+    }
+}
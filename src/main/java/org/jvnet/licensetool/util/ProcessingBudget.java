@@ -0,0 +1,169 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.util;
+
+/**
+ * Per-file processing budget.  The Scanner starts a budget before a file
+ * is parsed and clears it when the file is done; regular expressions that
+ * run over file contents should match against {@link #guard(CharSequence)}
+ * so that a pathological input (very long lines, minified files, long runs
+ * of digits and commas) aborts with a {@link BudgetExceededException}
+ * instead of stalling the whole run.  The parsers call {@link #check()} as
+ * they walk the lines and comments of a file, so that the time spent outside
+ * of regular expressions counts too.
+ *
+ * @see org.jvnet.licensetool.Scanner
+ */
+public class ProcessingBudget {
+    /**
+     * Lines longer than this are not handed to the regular expressions in
+     * {@link CopyrightParser}; they are scanned by hand instead.
+     */
+    public static final int MAX_REGEX_INPUT = 1024;
+
+    // how many charAt() calls between two looks at the clock
+    private static final int CHECK_INTERVAL = 4096;
+
+    private static final ThreadLocal<Budget> budget = new ThreadLocal<Budget>();
+
+    private ProcessingBudget() {
+    }
+
+    private static class Budget {
+        final long deadline;
+        final long maxLength;
+
+        Budget(long deadline, long maxLength) {
+            this.deadline = deadline;
+            this.maxLength = maxLength;
+        }
+    }
+
+    /**
+     * Thrown when the current file is too expensive to process within its budget.
+     */
+    public static class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BudgetExceededException(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * Start a budget for the current thread: at most maxMillis of processing time
+     * and at most maxLength bytes of input.  A value <= 0 means no limit.
+     */
+    public static void start(long maxMillis, long maxLength) {
+        long deadline = maxMillis > 0 ? System.currentTimeMillis() + maxMillis : Long.MAX_VALUE;
+        budget.set(new Budget(deadline, maxLength > 0 ? maxLength : Long.MAX_VALUE));
+    }
+
+    public static void clear() {
+        budget.remove();
+    }
+
+    /**
+     * Throws BudgetExceededException if the time budget of the current thread is used up.
+     */
+    public static void check() {
+        Budget b = budget.get();
+        if (b != null && System.currentTimeMillis() > b.deadline) {
+            throw new BudgetExceededException("processing time budget exceeded");
+        }
+    }
+
+    /**
+     * Throws BudgetExceededException if an input of the given length is over
+     * the budget of the current thread.
+     */
+    public static void checkLength(long length) {
+        Budget b = budget.get();
+        if (b != null && length > b.maxLength) {
+            throw new BudgetExceededException(length + " bytes of input exceeds the limit of " + b.maxLength);
+        }
+    }
+
+    /**
+     * Returns a view of str that checks the time budget of the current thread
+     * while it is being read, or str itself if there is no time limit.
+     */
+    public static CharSequence guard(CharSequence str) {
+        Budget b = budget.get();
+        if (b == null || b.deadline == Long.MAX_VALUE) {
+            return str;
+        }
+        return new GuardedCharSequence(str, b.deadline);
+    }
+
+    private static class GuardedCharSequence implements CharSequence {
+        private final CharSequence data;
+        private final long deadline;
+        private int count = 0;
+
+        GuardedCharSequence(CharSequence data, long deadline) {
+            this.data = data;
+            this.deadline = deadline;
+        }
+
+        public char charAt(int index) {
+            if (++count == CHECK_INTERVAL) {
+                count = 0;
+                if (System.currentTimeMillis() > deadline) {
+                    throw new BudgetExceededException("processing time budget exceeded");
+                }
+            }
+            return data.charAt(index);
+        }
+
+        public int length() {
+            return data.length();
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new GuardedCharSequence(data.subSequence(start, end), deadline);
+        }
+
+        public String toString() {
+            return data.toString();
+        }
+    }
+}
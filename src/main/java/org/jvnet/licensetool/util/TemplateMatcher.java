@@ -0,0 +1,252 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2011 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.licensetool.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches a header against several approved copyright templates at once.
+ *
+ * <p>
+ * The templates are stored in one trie, so the text they share (usually most
+ * of it) is only walked once.  Where a template line has {@code "YYYY "} the
+ * trie has an edge for a year or a range of years followed by a space, and
+ * where it has {@code "YYYY, "} one for a list of years each followed by a
+ * comma and a space; these are the same years the templates accepted as
+ * regular expressions.  A header is matched by following all the edges it
+ * allows in step, one character at a time, so it takes a single pass however
+ * many templates there are.
+ */
+public class TemplateMatcher {
+    // what is being read at a node: sub-states of the year edges, or NODE for
+    // the node itself.  RANGE_1..RANGE_4 mean 1..4 digits read, RANGE_DASH a
+    // '-' after them, RANGE_DASH+1..RANGE_DASH+4 the digits after the '-'.
+    private static final int NODE = 0;
+    private static final int RANGE_1 = 1;
+    private static final int RANGE_4 = 4;
+    private static final int RANGE_DASH = 5;
+    private static final int RANGE_END = 9;
+    // LIST_0 is the start of another year, LIST_1..LIST_4 1..4 digits read,
+    // LIST_COMMA the ',' after them
+    private static final int LIST_0 = 10;
+    private static final int LIST_1 = 11;
+    private static final int LIST_4 = 14;
+    private static final int LIST_COMMA = 15;
+
+    private static class Node {
+        char[] keys = new char[0];
+        Node[] next = new Node[0];
+        // node after a year or range of years and a space
+        Node range;
+        // node after a list of years, each with ", "
+        Node list;
+        // index of the first template ending here, or -1
+        int accept = -1;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return next[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node n = child(c);
+            if (n == null) {
+                n = new Node();
+                char[] k = new char[keys.length + 1];
+                Node[] nx = new Node[keys.length + 1];
+                System.arraycopy(keys, 0, k, 0, keys.length);
+                System.arraycopy(next, 0, nx, 0, keys.length);
+                k[keys.length] = c;
+                nx[keys.length] = n;
+                keys = k;
+                next = nx;
+            }
+            return n;
+        }
+    }
+
+    private final Node root = new Node();
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> texts = new ArrayList<String>();
+
+    /**
+     * Adds a template.  When a header matches several, the one added first wins.
+     *
+     * @param name reported by {@link #getName(int)}
+     * @param text copyright text, with YYYY where years go
+     */
+    public void add(String name, String text) {
+        int index = names.size();
+        names.add(name);
+        texts.add(text);
+        Node node = root;
+        for (String line : ToolUtil.splitToLines(normalize(text))) {
+            // only one kind of year slot per line, as the templates always had
+            String slot = line.contains("YYYY ") ? "YYYY " : line.contains("YYYY, ") ? "YYYY, " : null;
+            int i = 0;
+            while (i < line.length()) {
+                if (slot != null && line.startsWith(slot, i)) {
+                    if (slot.length() == 5) {
+                        if (node.range == null) {
+                            node.range = new Node();
+                        }
+                        node = node.range;
+                    } else {
+                        if (node.list == null) {
+                            node.list = new Node();
+                        }
+                        node = node.list;
+                    }
+                    i += slot.length();
+                } else {
+                    node = node.addChild(line.charAt(i++));
+                }
+            }
+        }
+        if (node.accept < 0) {
+            node.accept = index;
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public String getName(int index) {
+        return names.get(index);
+    }
+
+    public String getText(int index) {
+        return texts.get(index);
+    }
+
+    /**
+     * Returns the index of the template the whole of header matches, or -1 if
+     * none does.
+     */
+    public int match(String header) {
+        header = normalize(header);
+        List<Node> nodes = new ArrayList<Node>();
+        List<Integer> subs = new ArrayList<Integer>();
+        List<Node> nextNodes = new ArrayList<Node>();
+        List<Integer> nextSubs = new ArrayList<Integer>();
+        nodes.add(root);
+        subs.add(NODE);
+        for (int i = 0; i < header.length() && !nodes.isEmpty(); i++) {
+            char c = header.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            for (int s = 0; s < nodes.size(); s++) {
+                Node n = nodes.get(s);
+                int sub = subs.get(s);
+                if (sub == NODE) {
+                    Node child = n.child(c);
+                    if (child != null) {
+                        addState(nextNodes, nextSubs, child, NODE);
+                    }
+                    if (digit && n.range != null) {
+                        addState(nextNodes, nextSubs, n, RANGE_1);
+                    }
+                    if (digit && n.list != null) {
+                        addState(nextNodes, nextSubs, n, LIST_1);
+                    }
+                } else if (sub == RANGE_4) {
+                    if (c == ' ') {
+                        addState(nextNodes, nextSubs, n.range, NODE);
+                    } else if (c == '-') {
+                        addState(nextNodes, nextSubs, n, RANGE_DASH);
+                    }
+                } else if (sub == RANGE_END) {
+                    if (c == ' ') {
+                        addState(nextNodes, nextSubs, n.range, NODE);
+                    }
+                } else if (sub == LIST_4) {
+                    if (c == ',') {
+                        addState(nextNodes, nextSubs, n, LIST_COMMA);
+                    }
+                } else if (sub == LIST_COMMA) {
+                    if (c == ' ') {
+                        // either the list ends or another year follows
+                        addState(nextNodes, nextSubs, n.list, NODE);
+                        addState(nextNodes, nextSubs, n, LIST_0);
+                    }
+                } else if (digit) {
+                    // the other sub-states are in the middle of a year
+                    addState(nextNodes, nextSubs, n, sub + 1);
+                }
+            }
+            List<Node> tn = nodes;
+            nodes = nextNodes;
+            nextNodes = tn;
+            nextNodes.clear();
+            List<Integer> ts = subs;
+            subs = nextSubs;
+            nextSubs = ts;
+            nextSubs.clear();
+        }
+        int result = -1;
+        for (int s = 0; s < nodes.size(); s++) {
+            int accept = nodes.get(s).accept;
+            if (subs.get(s) == NODE && accept >= 0 && (result < 0 || accept < result)) {
+                result = accept;
+            }
+        }
+        return result;
+    }
+
+    private static void addState(List<Node> nodes, List<Integer> subs, Node node, int sub) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) == node && subs.get(i) == sub) {
+                return;
+            }
+        }
+        nodes.add(node);
+        subs.add(sub);
+    }
+
+    private static String normalize(String s) {
+        return s.replace("\r\n", "\n").replace("\r", "\n");
+    }
+}
@@ -40,6 +40,10 @@
 
 package org.jvnet.licensetool.util;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
@@ -50,22 +54,46 @@ import java.util.regex.Matcher;
  * @author Rama Pulavarthi
  */
 public class ToolUtil {
+    /**
+     * Splits data into lines, each line keeping its line terminator.
+     * Does the same split as matching "(.+?)^" in MULTILINE|DOTALL mode,
+     * but in a single linear pass, so it cannot backtrack on long lines.
+     */
     public static List<String> splitToLines(String data) {
         List<String> lines = new ArrayList<String>();
-        String patternStr = "(.+?)^";
-        Pattern pattern = Pattern.compile(patternStr, Pattern.MULTILINE | Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(data);
         int index = 0;// to store last match
-        while (matcher.find()) {
-            lines.add(matcher.group());
-            index = matcher.end();
-
+        int next;
+        while ((next = nextLineStart(data, index)) != -1) {
+            lines.add(data.substring(index, next));
+            index = next;
         }
         //get the rest
         lines.add(data.substring(index));
         return lines;
     }
 
+    /**
+     * Returns the index of the start of the first line after position from,
+     * or -1 if there is no further line start before the end of data.
+     * Line terminators are the ones recognized by java.util.regex.
+     */
+    public static int nextLineStart(String data, int from) {
+        int len = data.length();
+        for (int i = from; i < len; i++) {
+            char c = data.charAt(i);
+            if (c == '\r') {
+                if (i + 1 < len && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else if (c != '\n' && c != '\u0085' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            // a line never starts at the very end of input
+            return (i + 1 < len) ? i + 1 : -1;
+        }
+        return -1;
+    }
+
     public static String sniffLineSeparator(String data) {
         List<String> lines = splitToLines(data);
         String fline = lines.get(0);
@@ -110,7 +138,7 @@ public class ToolUtil {
     public static boolean areCommentsSimilar(String exp, String got) {
         exp = normalizeString(exp);
         got = normalizeString(got);
-        if(EditDistance.editDistance(exp,got) <=  10) {
+        if(EditDistance.editDistance(exp,got,10) <=  10) {
             return true;
         }
 //        System.out.println("Expected: " + exp);
@@ -125,13 +153,23 @@ public class ToolUtil {
 //        System.out.println("Expected: " + exp);
 //        System.out.println("Got     : " + got);
         Pattern cr_pattern = Pattern.compile(cr_template, Pattern.MULTILINE);
-        Matcher m = cr_pattern.matcher(cr_file);
+        Matcher m = cr_pattern.matcher(ProcessingBudget.guard(cr_file));
         return m.matches();
         //return cr_file.matches(cr_template);
 
     }
 
 
+    /**
+     * Renames temp over target in a single step, so that target always has either
+     * its old or its new contents.  If that can't be done, target is left as it
+     * was, temp is left in place and IOException is thrown.
+     */
+    public static void moveOver(File temp, File target) throws IOException {
+        Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     private static String normalizeString(String s) {
         s = s.replace("\r\n","\n");
         s = s.replace("\r","\n");
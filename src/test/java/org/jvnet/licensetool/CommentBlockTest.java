@@ -0,0 +1,184 @@
+package org.jvnet.licensetool;
+
+import junit.framework.TestCase;
+import org.jvnet.licensetool.file.CommentBlock;
+import org.jvnet.licensetool.util.ToolUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the comment blocks, which keep their text as one string with the
+ * offsets of the comment part of each line, against splitting the text into
+ * lines and taking each one apart.
+ */
+public class CommentBlockTest extends TestCase {
+
+    public void testMultiLine() {
+        String text = "/*\n * Copyright 2011\n *\n * text\n */";
+        MultiLineCommentFile.MultiLineCommentBlock b =
+                new MultiLineCommentFile.MultiLineCommentBlock("/*", "*/", " *", text, new HashSet<String>());
+        assertEquals(text, b.contents());
+        assertEquals(" Copyright 2011\n\n text\n", b.comment());
+        assertFalse(b.isModified());
+
+        b.replace("a\nb\n");
+        assertEquals("/* *a\n *b\n*/", b.contents());
+        assertEquals("a\nb\n", b.comment());
+        assertTrue(b.isModified());
+        assertEquals(text, b.originalContents());
+    }
+
+    public void testLineComment() {
+        String text = "#\n# Copyright 2011\n#   text\n#\n";
+        LineCommentFile.LineCommentBlock b = new LineCommentFile.LineCommentBlock("#", text, new HashSet<String>());
+        assertEquals(text, b.contents());
+        assertEquals(" Copyright 2011\n   text\n", b.comment());
+
+        LineCommentFile.LineCommentBlock first = b.splitFirst().first();
+        assertEquals(text, first.contents());
+        assertEquals(b.comment(), first.comment());
+
+        b.replace("x\r\ny");
+        assertEquals("#x\r\n#y", b.contents());
+        assertEquals(text, b.originalContents());
+    }
+
+    public void testCreatedBlocksAreCopies() {
+        CommentBlock a = MultiLineCommentFile.MultiLineCommentBlock.createCommentBlock(
+                "/*", "*/", " *", "Copyright\n", "\n");
+        CommentBlock b = MultiLineCommentFile.MultiLineCommentBlock.createCommentBlock(
+                "/*", "*/", " *", "Copyright\n", "\n");
+        assertNotSame(a, b);
+        assertEquals("/*\n *Copyright\n*/", a.contents());
+        a.replace("changed\n");
+        assertEquals("/*\n *Copyright\n*/", b.contents());
+
+        CommentBlock c = LineCommentFile.LineCommentBlock.createCommentBlock("#", "Copyright\n", "\n");
+        CommentBlock d = LineCommentFile.LineCommentBlock.createCommentBlock("#", "Copyright\n", "\n");
+        assertEquals("#\n#Copyright\n#\n", c.contents());
+        c.replace("changed\n");
+        assertEquals("#\n#Copyright\n#\n", d.contents());
+        a.addTag("only-a");
+        assertFalse(b.hasTag("only-a"));
+    }
+
+    public void testMultiLineAgainstLines() {
+        Random random = new Random(5);
+        String[] tokens = {"/*", " *", " * foo", "bar", "\n", "\r\n", " ", "\t", "x"};
+        for (int round = 0; round < 20000; round++) {
+            StringBuilder sb = new StringBuilder("/*");
+            for (int i = random.nextInt(10); i > 0; i--) {
+                sb.append(tokens[random.nextInt(tokens.length)]);
+            }
+            sb.append("*/");
+            String text = sb.toString();
+            if (text.indexOf("*/", 2) < text.length() - 2) {
+                // the parser ends a block at the first end marker
+                continue;
+            }
+            String name = text.replace("\n", "\\n").replace("\r", "\\r");
+            boolean asLines = random.nextBoolean();
+            MultiLineCommentFile.MultiLineCommentBlock b = asLines
+                    ? new MultiLineCommentFile.MultiLineCommentBlock("/*", "*/", " *", ToolUtil.splitToLines(text), new HashSet<String>())
+                    : new MultiLineCommentFile.MultiLineCommentBlock("/*", "*/", " *", text, new HashSet<String>());
+            assertEquals(name, text, b.contents());
+            assertEquals(name, multiLineComment(text), b.comment());
+
+            String replacement = random.nextBoolean() ? " a\n b\n" : "x\r\ny";
+            b.replace(replacement);
+            List<String> lines = ToolUtil.splitToLines(text);
+            String startLine = lines.get(0);
+            String endLine = lines.get(lines.size() - 1);
+            StringBuilder expected = new StringBuilder(startLine.substring(0, startLine.indexOf("/*") + 2));
+            for (String line : ToolUtil.splitToLines(replacement)) {
+                expected.append(" *").append(line);
+            }
+            // the end marker and what follows it on its line
+            expected.append(lines.size() == 1
+                    ? startLine.substring(startLine.indexOf("*/", 2))
+                    : endLine.substring(endLine.indexOf("*/")));
+            assertEquals(name, expected.toString(), b.contents());
+            assertEquals(name, replacement, b.comment());
+            assertEquals(name, text, b.originalContents());
+        }
+    }
+
+    public void testLineCommentAgainstLines() {
+        Random random = new Random(6);
+        String[] tokens = {"# foo", "#", " ", "bar", "\t"};
+        String[] breaks = {"\n", "\r\n", ""};
+        for (int round = 0; round < 20000; round++) {
+            StringBuilder sb = new StringBuilder();
+            for (int line = random.nextInt(6); line >= 0; line--) {
+                // every line has the prefix, with anything before or after it
+                if (random.nextBoolean()) {
+                    sb.append(" ");
+                }
+                sb.append("#");
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    sb.append(tokens[random.nextInt(tokens.length)]);
+                }
+                sb.append(line == 0 ? breaks[random.nextInt(3)] : breaks[random.nextInt(2)]);
+            }
+            String text = sb.toString();
+            String name = text.replace("\n", "\\n").replace("\r", "\\r");
+            boolean asLines = random.nextBoolean();
+            LineCommentFile.LineCommentBlock b = asLines
+                    ? new LineCommentFile.LineCommentBlock("#", ToolUtil.splitToLines(text), new HashSet<String>())
+                    : new LineCommentFile.LineCommentBlock("#", text, new HashSet<String>());
+            assertEquals(name, text, b.contents());
+            assertEquals(name, lineComment(text), b.comment());
+            assertEquals(name, text, b.splitFirst().first().contents());
+            assertEquals(name, "", b.splitFirst().second().contents());
+
+            b.replace(" a\n b\n");
+            assertEquals(name, "# a\n# b\n", b.contents());
+            assertEquals(name, " a\n b\n", b.comment());
+            assertEquals(name, text, b.originalContents());
+        }
+    }
+
+    // what follows the prefix of each line, where the first and last lines only count if not blank
+    private static String lineComment(String text) {
+        List<String> parts = new ArrayList<String>();
+        for (String line : ToolUtil.splitToLines(text)) {
+            parts.add(line.substring(line.indexOf('#') + 1));
+        }
+        return join(parts);
+    }
+
+    // the text after the start marker, each line in between after its prefix, and the text before the end marker
+    private static String multiLineComment(String text) {
+        List<String> lines = ToolUtil.splitToLines(text);
+        List<String> parts = new ArrayList<String>();
+        String first = lines.get(0).substring(2);
+        if (lines.size() == 1) {
+            parts.add(first.substring(0, first.indexOf("*/")));
+            parts.add("");
+            return join(parts);
+        }
+        parts.add(first);
+        for (String line : lines.subList(1, lines.size() - 1)) {
+            int index = line.indexOf(" *");
+            parts.add(index < 0 ? line : line.substring(index + 2));
+        }
+        String last = lines.get(lines.size() - 1);
+        parts.add(last.substring(0, last.indexOf("*/")));
+        return join(parts);
+    }
+
+    private static String join(List<String> parts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            String part = parts.get(i);
+            if ((i == 0 || i == parts.size() - 1) && part.trim().length() == 0) {
+                continue;
+            }
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,238 @@
+package org.jvnet.licensetool;
+
+import junit.framework.TestCase;
+import org.jvnet.licensetool.argparser.ArgParser;
+import org.jvnet.licensetool.file.FileWrapper;
+import org.jvnet.licensetool.file.ParsedFile;
+import org.jvnet.licensetool.file.PlainBlock;
+import org.jvnet.licensetool.generic.Pair;
+import org.jvnet.licensetool.util.TemplateMatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Checks that verdicts kept in the content cache are found again for the same
+ * contents, and that a second run over a copy of the same files repeats them
+ * without running the action.
+ */
+public class ContentCacheTest extends TestCase {
+    private static final String[] SOURCES = {
+            "com/example/NoCopyright.java", "com/example/DiffCopyright.java",
+            "com/example/SameCopyright.java", "com/example/SameCopyright.properties",
+            "com/example/NoCopyright.xml", "make/shellscript2.sh"};
+
+    private File dir;
+    private File copyright;
+
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("contentcache").toFile();
+        copyright = resource("copyright/copyright.txt");
+    }
+
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    public void testVerdictsAreKeptByContents() throws IOException {
+        File a = write("a/Same.java", "class A {}\n");
+        File b = write("b/Same.java", "class A {}\n");
+        File other = write("a/Same.properties", "class A {}\n");
+        ContentStore store = new DirectoryContentStore(new File(dir, "store"));
+        ContentCache cache = new ContentCache(store, null, "config", 0);
+
+        Map<File, Pair<String, ContentCache.Verdict>> found = cache.lookup(Arrays.asList(a, b, other));
+        assertEquals(found.get(a).first(), found.get(b).first());
+        // the suffix picks the parser, so it is part of the key
+        assertFalse(found.get(a).first().equals(found.get(other).first()));
+        assertNull(found.get(a).second());
+
+        cache.put(found.get(a).first(), ContentCache.Verdict.validated(Arrays.asList("one", "two")));
+        cache.put(found.get(other).first(), ContentCache.Verdict.modified("head\u00e9\n", 7));
+
+        // a new run, with the same store
+        cache = new ContentCache(store, null, "config", 0);
+        assertEquals(Arrays.asList("one", "two"), cache.lookup(b).second().errors);
+        ContentCache.Verdict modified = cache.lookup(other).second();
+        assertNull(modified.errors);
+        assertEquals("head\u00e9\n", modified.head);
+        assertEquals(7, modified.tailOffset);
+
+        // another copyright text or set of options is another key
+        assertNull(new ContentCache(store, null, "other config", 0).lookup(b).second());
+        // files over the size limit are not hashed
+        assertNull(new ContentCache(store, null, "config", 5).lookup(b));
+    }
+
+    public void testFailingRemoteStoreIsDropped() throws IOException {
+        File a = write("a/Same.java", "class A {}\n");
+        final int[] calls = {0};
+        ContentStore failing = new ContentStore() {
+            public Map<String, byte[]> get(List<String> keys) throws IOException {
+                calls[0]++;
+                throw new IOException("down");
+            }
+
+            public void put(String key, byte[] value) throws IOException {
+                calls[0]++;
+                throw new IOException("down");
+            }
+        };
+        ContentCache cache = new ContentCache(new DirectoryContentStore(new File(dir, "store")), failing, "config", 0);
+        Pair<String, ContentCache.Verdict> found = cache.lookup(a);
+        assertNull(found.second());
+        cache.put(found.first(), ContentCache.Verdict.modified(null, 0));
+        assertEquals(1, calls[0]);
+        // still in the local store
+        assertNotNull(cache.lookup(a).second());
+    }
+
+    public void testModifyIsReplayed() throws Exception {
+        File first = copySources("first");
+        File second = copySources("second");
+        int[] evaluated = scan(false, first);
+        assertEquals(SOURCES.length, evaluated[0]);
+        assertEquals(0, evaluated[1]);
+
+        evaluated = scan(false, second);
+        assertEquals(0, evaluated[0]);
+        assertEquals(SOURCES.length, evaluated[1]);
+        for (String source : SOURCES) {
+            assertEquals(source, read(new File(first, source)), read(new File(second, source)));
+        }
+    }
+
+    public void testModifyPastTheEndIsNotReplayed() throws Exception {
+        File first = copySources("first");
+        File file = new File(first, SOURCES[0]);
+        String original = read(file);
+        // the store the scan below uses, with a verdict that cuts the file past its end
+        ContentCache cache = new ContentCache(new DirectoryContentStore(new File(new File(dir, "cache"), "content")),
+                null, "false\n" + new PlainBlock(new FileWrapper(copyright)).contents(), 0);
+        cache.put(cache.lookup(file).first(), ContentCache.Verdict.modified("class Bad {}\n", file.length() + 1));
+
+        int[] evaluated = scan(false, first);
+        assertEquals(SOURCES.length, evaluated[0]);
+        assertEquals(0, evaluated[1]);
+        assertFalse(read(file).startsWith("class Bad"));
+        assertTrue(read(file).endsWith(original.substring(original.indexOf("package"))));
+    }
+
+    public void testValidationErrorsAreReplayed() throws Exception {
+        File first = copySources("first");
+        File second = copySources("second");
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                if (record.getMessage().startsWith("Copyright validation error")) {
+                    errors.add(record.getMessage());
+                }
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger("org.jvnet.licensetool");
+        logger.addHandler(handler);
+        try {
+            assertEquals(SOURCES.length, scan(true, first)[0]);
+            List<String> expected = new ArrayList<String>();
+            for (String error : errors) {
+                expected.add(error.replace(first.getPath(), "ROOT"));
+            }
+            assertFalse(expected.isEmpty());
+            errors.clear();
+
+            int[] evaluated = scan(true, second);
+            assertEquals(0, evaluated[0]);
+            assertEquals(SOURCES.length, evaluated[1]);
+            List<String> replayed = new ArrayList<String>();
+            for (String error : errors) {
+                replayed.add(error.replace(second.getPath(), "ROOT"));
+            }
+            Collections.sort(expected);
+            Collections.sort(replayed);
+            assertEquals(expected, replayed);
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    /**
+     * Scans root with the validate or modify action and a cache in dir.  Returns
+     * how many files the action saw and how many came from the cache.
+     */
+    private int[] scan(boolean validate, File root) throws Exception {
+        LicenseTool.Arguments args = new ArgParser<LicenseTool.Arguments>(LicenseTool.Arguments.class).parse(
+                new String[] {"-validate", String.valueOf(validate), "-dryrun", "false", "-endyear", "2010",
+                        "-roots", root.getPath(), "-cachedir", new File(dir, "cache").getPath(),
+                        "-copyright", copyright.getPath()});
+        PlainBlock copyrightText = new PlainBlock(args.copyright());
+        TemplateMatcher templates = new TemplateMatcher();
+        templates.add(copyright.getName(), copyrightText.contents());
+        ActionFactory factory = new ActionFactory();
+        final Scanner.Action action = validate
+                ? factory.getValidateCopyrightAction(copyrightText, templates, args)
+                : factory.getModifyCopyrightAction(copyrightText, templates, args);
+        final int[] evaluated = {0};
+        Scanner scanner = new Scanner(args, args.roots());
+        scanner.cacheVerdicts(validate + "\n" + copyrightText.contents());
+        scanner.scan(new RecognizerFactory().getDefaultRecognizer(), new Scanner.Action() {
+            public boolean evaluate(ParsedFile pfile) {
+                synchronized (evaluated) {
+                    evaluated[0]++;
+                }
+                return action.evaluate(pfile);
+            }
+        });
+        return new int[] {evaluated[0], scanner.getFilesFromCache()};
+    }
+
+    private File copySources(String name) throws Exception {
+        File root = new File(dir, name);
+        for (String source : SOURCES) {
+            File to = new File(root, source);
+            to.getParentFile().mkdirs();
+            Files.copy(resource("testsrc/" + source).toPath(), to.toPath());
+        }
+        return root;
+    }
+
+    private File write(String name, String contents) throws IOException {
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes("UTF-8"));
+        return file;
+    }
+
+    private File resource(String name) throws URISyntaxException {
+        return new File(getClass().getClassLoader().getResource(name).toURI());
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
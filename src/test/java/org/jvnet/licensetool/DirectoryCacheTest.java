@@ -0,0 +1,126 @@
+package org.jvnet.licensetool;
+
+import junit.framework.TestCase;
+import org.jvnet.licensetool.generic.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Checks that a directory is listed from the cache as long as its time didn't
+ * change, and that the cache file is only written when something changed.
+ */
+public class DirectoryCacheTest extends TestCase {
+    // well before the racy window
+    private static final long OLD = 1000000000000L;
+
+    private File dir;
+    private File cacheFile;
+
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("directorycache").toFile();
+        cacheFile = new File(new File(dir, "cache"), "directories");
+    }
+
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    public void testUnchangedDirectoryIsNotListedAgain() throws IOException {
+        File src = directory("src", "A.java", "B.java");
+        new File(src, "sub").mkdir();
+        src.setLastModified(OLD);
+        DirectoryCache cache = DirectoryCache.load(cacheFile);
+        assertEquals("[A.java, B.java, sub/]", names(cache.list(src)));
+        cache.save(true);
+
+        // a file added without the directory time changing is not seen
+        write(new File(src, "C.java"));
+        src.setLastModified(OLD);
+        assertEquals("[A.java, B.java, sub/]", names(DirectoryCache.load(cacheFile).list(src)));
+    }
+
+    public void testChangedTimeListsAgain() throws IOException {
+        File src = directory("src", "A.java");
+        src.setLastModified(OLD);
+        DirectoryCache cache = DirectoryCache.load(cacheFile);
+        cache.list(src);
+        cache.save(true);
+
+        write(new File(src, "C.java"));
+        src.setLastModified(OLD + 1000);
+        assertEquals("[A.java, C.java]", names(DirectoryCache.load(cacheFile).list(src)));
+    }
+
+    public void testRacyDirectoryIsNotCached() throws IOException {
+        File src = directory("src", "A.java");
+        long now = src.lastModified();
+        DirectoryCache cache = DirectoryCache.load(cacheFile);
+        cache.list(src);
+        cache.save(true);
+
+        // changed again within the same tick of the clock
+        write(new File(src, "C.java"));
+        src.setLastModified(now);
+        assertEquals("[A.java, C.java]", names(DirectoryCache.load(cacheFile).list(src)));
+    }
+
+    public void testUnchangedCacheIsNotWritten() throws IOException {
+        File src = directory("src", "A.java");
+        src.setLastModified(OLD);
+        DirectoryCache cache = DirectoryCache.load(cacheFile);
+        cache.list(src);
+        cache.save(true);
+        cacheFile.setLastModified(OLD);
+
+        cache = DirectoryCache.load(cacheFile);
+        cache.list(src);
+        cache.save(true);
+        assertEquals(OLD, cacheFile.lastModified());
+        cache.save(false);
+        assertEquals(OLD, cacheFile.lastModified());
+
+        // a complete scan that no longer sees src drops it
+        cache = DirectoryCache.load(cacheFile);
+        cache.save(false);
+        assertEquals(OLD, cacheFile.lastModified());
+        cache.save(true);
+        assertFalse(OLD == cacheFile.lastModified());
+    }
+
+    private File directory(String name, String... files) throws IOException {
+        File d = new File(dir, name);
+        d.mkdirs();
+        for (String file : files) {
+            write(new File(d, file));
+        }
+        return d;
+    }
+
+    private static void write(File file) throws IOException {
+        Files.write(file.toPath(), "class A {}\n".getBytes("UTF-8"));
+    }
+
+    // the names of the listed entries, sorted, directories with a trailing slash
+    private static String names(List<Pair<File, Boolean>> entries) {
+        Set<String> names = new TreeSet<String>();
+        for (Pair<File, Boolean> entry : entries) {
+            names.add(entry.first().getName() + (entry.second() ? "/" : ""));
+        }
+        return names.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
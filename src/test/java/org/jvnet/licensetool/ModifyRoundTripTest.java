@@ -0,0 +1,152 @@
+package org.jvnet.licensetool;
+
+import junit.framework.TestCase;
+import org.jvnet.licensetool.argparser.ArgParser;
+import org.jvnet.licensetool.file.FileParser;
+import org.jvnet.licensetool.file.FileWrapper;
+import org.jvnet.licensetool.file.ParsedFile;
+import org.jvnet.licensetool.file.PlainBlock;
+import org.jvnet.licensetool.util.TemplateMatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the modify action on copies of the test sources and checks how the
+ * files are written: through a temp file with the permissions kept, not at
+ * all when nothing changed, and in place when only the years did.
+ */
+public class ModifyRoundTripTest extends TestCase {
+    private static final String[] SOURCES = {
+            "com/example/NoCopyright.java", "com/example/DiffCopyright.java",
+            "com/example/SameCopyright.properties", "make/shellscript2.sh"};
+
+    private File root;
+    private File copyright;
+
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("roundtrip").toFile();
+        for (String source : SOURCES) {
+            File to = new File(root, source);
+            to.getParentFile().mkdirs();
+            Files.copy(resource("testsrc/" + source).toPath(), to.toPath());
+        }
+        copyright = resource("copyright/copyright.txt");
+    }
+
+    protected void tearDown() throws Exception {
+        delete(root);
+    }
+
+    public void testRewriteKeepsPermissions() throws IOException {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rwxr-x---");
+        File script = new File(root, "make/shellscript2.sh");
+        Files.setPosixFilePermissions(script.toPath(), permissions);
+        String before = read(script);
+
+        modify();
+        assertFalse(before.equals(read(script)));
+        assertEquals(permissions, Files.getPosixFilePermissions(script.toPath()));
+        // no temp files are left behind
+        assertEquals(Arrays.asList("shellscript2.sh"), Arrays.asList(script.getParentFile().list()));
+    }
+
+    public void testUnchangedFilesAreNotWritten() throws IOException {
+        modify();
+        List<String> written = new ArrayList<String>();
+        for (String source : SOURCES) {
+            File file = new File(root, source);
+            written.add(read(file));
+            assertTrue(file.setLastModified(1000000000000L));
+        }
+
+        modify();
+        for (int i = 0; i < SOURCES.length; i++) {
+            File file = new File(root, SOURCES[i]);
+            assertEquals(SOURCES[i], written.get(i), read(file));
+            assertEquals(SOURCES[i], 1000000000000L, file.lastModified());
+        }
+    }
+
+    public void testYearsArePatchedInPlace() throws IOException {
+        modify();
+        File file = new File(root, "com/example/NoCopyright.java");
+        String before = read(file);
+        assertTrue(before, before.contains("Copyright 1997, 2010, "));
+        Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+
+        LicenseTool.Arguments args = new ArgParser<LicenseTool.Arguments>(LicenseTool.Arguments.class).parse(
+                new String[] {"-validate", "false", "-dryrun", "false", "-uselastmodified", "true",
+                        "-copyright", copyright.getPath()});
+        PlainBlock copyrightText = new PlainBlock(args.copyright());
+        TemplateMatcher templates = new TemplateMatcher();
+        templates.add(copyright.getName(), copyrightText.contents());
+        ActionFactory factory = new ActionFactory();
+        Scanner.Action action = factory.getModifyCopyrightAction(copyrightText, templates, args);
+
+        FileWrapper fw = new FileWrapper(file);
+        try {
+            FileParser parser = new RecognizerFactory().getDefaultRecognizer().getParser(fw);
+            ParsedFile pfile = parser.parseFile(fw);
+            pfile.setLastModifiedYear(year("2011"));
+            assertTrue(action.evaluate(pfile));
+        } finally {
+            fw.close();
+        }
+        assertEquals(1, factory.getFilesChanged());
+
+        assertEquals(before.replace("Copyright 1997, 2010, ", "Copyright 1997, 2011, "), read(file));
+        if (key != null) {
+            // only the digits changed, so they were written over in the same file
+            assertEquals(key, Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+        }
+    }
+
+    private void modify() {
+        LicenseTool.main(new String[] {"-validate", "false", "-options", "checkEmpty", "-dryrun", "false",
+                "-endyear", "2010", "-roots", root.getPath(), "-copyright", copyright.getPath()});
+    }
+
+    private static FutureTask<String> year(final String year) {
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            public String call() {
+                return year;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    private File resource(String name) throws URISyntaxException {
+        return new File(getClass().getClassLoader().getResource(name).toURI());
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
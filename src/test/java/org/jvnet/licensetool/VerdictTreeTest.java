@@ -0,0 +1,156 @@
+package org.jvnet.licensetool;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Checks that the errors of unchanged files are found again in a saved tree,
+ * that changed and just written files are validated again, and that trusted
+ * directory times replay a whole subtree.
+ */
+public class VerdictTreeTest extends TestCase {
+    // well before the racy window
+    private static final long OLD = 1000000000000L;
+
+    private File dir;
+    private File treeFile;
+    private File root;
+    private File sub;
+    private File a;
+    private File b;
+
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("verdicttree").toFile();
+        treeFile = new File(new File(dir, "cache"), "verdicts");
+        root = new File(dir, "src");
+        sub = new File(root, "sub");
+        sub.mkdirs();
+        a = write(new File(root, "A.java"));
+        b = write(new File(sub, "B.java"));
+        sub.setLastModified(OLD);
+        root.setLastModified(OLD);
+    }
+
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    public void testUnchangedFileIsFoundAgain() {
+        scan(load(false));
+        VerdictTree tree = load(false);
+        tree.enterDirectory(root);
+        assertEquals(Arrays.asList("no header"), Arrays.asList(tree.lookup(a)));
+        assertEquals(0, tree.lookup(b).length);
+        // another copyright text drops the tree
+        assertNull(VerdictTree.load(treeFile, "other config", false).lookup(a));
+    }
+
+    public void testChangedFileIsValidatedAgain() throws IOException {
+        scan(load(false));
+        Files.write(a.toPath(), "class A { }\n".getBytes("UTF-8"));
+        a.setLastModified(OLD);
+        VerdictTree tree = load(false);
+        tree.enterDirectory(root);
+        assertNull(tree.lookup(a));
+
+        scan(load(false));
+        a.setLastModified(OLD + 1000);
+        assertNull(load(false).lookup(a));
+    }
+
+    public void testRacyFileIsNotKept() {
+        a.setLastModified(System.currentTimeMillis());
+        scan(load(false));
+        assertNull(load(false).lookup(a));
+        assertNotNull(load(false).lookup(b));
+    }
+
+    public void testUnchangedTreeIsNotWritten() {
+        scan(load(false));
+        treeFile.setLastModified(OLD);
+        VerdictTree tree = load(false);
+        tree.enterDirectory(root);
+        tree.lookup(a);
+        tree.addSubdirectories(root, Collections.singletonList("sub"));
+        tree.enterDirectory(sub);
+        tree.lookup(b);
+        tree.leaveDirectory(sub);
+        tree.leaveDirectory(root);
+        tree.save(true);
+        assertEquals(OLD, treeFile.lastModified());
+    }
+
+    public void testTrustedTimesReplayTheSubtree() throws IOException {
+        scan(load(true));
+        final List<String> errors = new ArrayList<String>();
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                errors.add(record.getMessage());
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(ActionFactory.class.getName());
+        logger.addHandler(handler);
+        try {
+            // directory times are only trusted if asked to
+            assertFalse(load(false).replaySubtree(root));
+
+            assertTrue(load(true).replaySubtree(root));
+            assertEquals(Arrays.asList("Copyright validation error: no header for " + a), errors);
+
+            // a new file in sub changes its time, and so that of the whole tree
+            write(new File(sub, "C.java"));
+            sub.setLastModified(OLD + 1000);
+            assertFalse(load(true).replaySubtree(root));
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    private VerdictTree load(boolean trustDirectoryTimes) {
+        return VerdictTree.load(treeFile, "config", trustDirectoryTimes);
+    }
+
+    // what the scanner does with the tree: a has an error, b has none
+    private void scan(VerdictTree tree) {
+        tree.enterDirectory(root);
+        tree.record(a, Collections.singletonList("no header"));
+        tree.addSubdirectories(root, Collections.singletonList("sub"));
+        tree.enterDirectory(sub);
+        tree.record(b, Collections.<String>emptyList());
+        tree.leaveDirectory(sub);
+        tree.leaveDirectory(root);
+        tree.save(true);
+    }
+
+    private static File write(File file) throws IOException {
+        Files.write(file.toPath(), "class A {}\n".getBytes("UTF-8"));
+        file.setLastModified(OLD);
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
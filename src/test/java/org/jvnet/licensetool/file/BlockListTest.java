@@ -0,0 +1,140 @@
+package org.jvnet.licensetool.file;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks BlockList against an ArrayList doing the same edits.
+ */
+public class BlockListTest extends TestCase {
+
+    public void testReAddAfterRemove() {
+        Block a = new PlainBlock("a");
+        Block b = new PlainBlock("b");
+        Block c = new PlainBlock("c");
+        BlockList list = new BlockList(Arrays.asList(a, b, c));
+        assertTrue(list.remove(b));
+        list.add(0, b);
+        assertEquals(Arrays.asList(b, a, c), new ArrayList<Block>(list));
+
+        assertTrue(list.remove(c));
+        list.set(0, c);
+        assertEquals(Arrays.asList(c, a), new ArrayList<Block>(list));
+    }
+
+    public void testRemoveByIdentity() {
+        Block a = new PlainBlock("same");
+        Block b = new PlainBlock("same");
+        BlockList list = new BlockList(Arrays.asList(a, b));
+        assertTrue(list.remove(b));
+        assertFalse(list.remove(b));
+        assertEquals(1, list.size());
+        assertSame(a, list.get(0));
+    }
+
+    public void testAgainstArrayList() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            List<Block> blocks = new ArrayList<Block>();
+            for (int i = random.nextInt(8); i > 0; i--) {
+                blocks.add(newBlock(random, round + "." + i));
+            }
+            BlockList list = new BlockList(blocks);
+            List<Block> expected = new ArrayList<Block>(blocks);
+            // every block ever made, so removed blocks come back too
+            List<Block> all = new ArrayList<Block>(blocks);
+            all.add(newBlock(random, round + ".spare"));
+            for (int op = 0; op < 30; op++) {
+                String name = round + "/" + op;
+                switch (random.nextInt(7)) {
+                case 0: {
+                    Block b = newBlock(random, name);
+                    all.add(b);
+                    list.add(0, b);
+                    expected.add(0, b);
+                    break;
+                }
+                case 1: {
+                    Block b = newBlock(random, name);
+                    int i = random.nextInt(expected.size() + 1);
+                    all.add(b);
+                    list.add(i, b);
+                    expected.add(i, b);
+                    break;
+                }
+                case 2: {
+                    Block b = all.get(random.nextInt(all.size()));
+                    assertEquals(name, removeSame(expected, b), list.remove(b));
+                    break;
+                }
+                case 3:
+                    if (!expected.isEmpty()) {
+                        int i = random.nextInt(expected.size());
+                        assertSame(name, expected.remove(i), list.remove(i));
+                    }
+                    break;
+                case 4: {
+                    // put back a block that is not in the list
+                    Block b = all.get(random.nextInt(all.size()));
+                    if (!containsSame(expected, b)) {
+                        int i = random.nextBoolean() ? 0 : random.nextInt(expected.size() + 1);
+                        list.add(i, b);
+                        expected.add(i, b);
+                    }
+                    break;
+                }
+                case 5: {
+                    Block b = all.get(random.nextInt(all.size()));
+                    if (!expected.isEmpty() && !containsSame(expected, b)) {
+                        int i = random.nextInt(expected.size());
+                        assertSame(name, expected.set(i, b), list.set(i, b));
+                    }
+                    break;
+                }
+                default: {
+                    List<CommentBlock> comments = new ArrayList<CommentBlock>();
+                    for (Block b : expected) {
+                        if (b instanceof CommentBlock) {
+                            comments.add((CommentBlock) b);
+                        }
+                    }
+                    assertEquals(name, comments, list.getComments());
+                }
+                }
+                assertEquals(name, expected.size(), list.size());
+                assertEquals(name, expected, new ArrayList<Block>(list));
+            }
+        }
+    }
+
+    private static Block newBlock(Random random, String name) {
+        if (random.nextBoolean()) {
+            return new PlainBlock(name);
+        }
+        return new org.jvnet.licensetool.LineCommentFile.LineCommentBlock(
+                "#", "# " + name + "\n", new java.util.HashSet<String>());
+    }
+
+    private static boolean containsSame(List<Block> list, Block block) {
+        for (Block b : list) {
+            if (b == block) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean removeSame(List<Block> list, Block block) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == block) {
+                list.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,71 @@
+package org.jvnet.licensetool.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Speaks the hg command server protocol on stdin and stdout, for
+ * HgCommandServerTest.  "log args..." prints how many commands this process
+ * ran and the arguments, with a warning on the error channel; "fail" exits
+ * with an error; "crash" ends the process.  Started with "old", it doesn't
+ * offer runcommand.
+ */
+public class FakeHgServer {
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+        boolean old = args.length > 0 && args[0].equals("old");
+        write(out, 'o', "capabilities: getencoding" + (old ? "" : " runcommand") + "\nencoding: UTF-8");
+        out.flush();
+        int served = 0;
+        while (readLine(in) != null) {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            String[] command = new String(b, "UTF-8").split("\u0000");
+            served++;
+            if (command[0].equals("crash")) {
+                System.exit(3);
+            } else if (command[0].equals("fail")) {
+                write(out, 'e', "abort: no such thing\n");
+                exit(out, 255);
+            } else {
+                StringBuilder sb = new StringBuilder("served " + served + ":");
+                for (String arg : command) {
+                    sb.append(' ').append(arg);
+                }
+                write(out, 'e', "warning: not a real hg\n");
+                write(out, 'o', sb.toString());
+                exit(out, 0);
+            }
+            out.flush();
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                return null;
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private static void write(DataOutputStream out, char channel, String text) throws IOException {
+        byte[] b = text.getBytes("UTF-8");
+        out.writeByte(channel);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static void exit(DataOutputStream out, int code) throws IOException {
+        out.writeByte('r');
+        out.writeInt(4);
+        out.writeInt(code);
+    }
+}
@@ -0,0 +1,223 @@
+package org.jvnet.licensetool.file;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the repository in src/test/resources/gitrepo, whose history is
+ * <pre>
+ *   2005 first   a.txt dir/b.txt dir/c.txt dir/sub/e.txt
+ *   2008 second  a.txt d.txt                      (both packed, with ofs deltas)
+ *   2010 third   a.txt dir/b.txt
+ *   2011 side    dir/c.txt                        (on a branch)
+ *   2012 fourth  a.txt
+ *   2013 merge of side                            (packed with ref deltas)
+ *   2014 fifth   dir/sub/e.txt removed, f.txt     (loose)
+ * </pre>
+ * with g.txt only added to the index.  The years are the ones git log gives.
+ */
+public class GitRepositoryTest extends TestCase {
+    static final String HEAD = "6c39fd94938f63b2845034a8648674d6805d9b0f";
+    static final String MERGE = "79fea9587f0dcbedd1e280c251c0f27dbd5cb29b";
+    static final String FOURTH = "78986eb2541b45748c6bc047429602549a9890bf";
+
+    private File root;
+
+    protected void setUp() throws Exception {
+        root = copyRepository();
+    }
+
+    protected void tearDown() throws Exception {
+        delete(root);
+    }
+
+    public void testReadIndex() throws IOException {
+        GitRepository repo = GitRepository.open(root);
+        assertEquals(paths("a.txt", "d.txt", "dir/b.txt", "dir/c.txt", "f.txt", "g.txt"), repo.readIndex());
+    }
+
+    public void testResolveHead() throws IOException {
+        assertEquals(HEAD, GitRepository.open(root).resolveHead());
+    }
+
+    public void testReadYearsOfTrackedFiles() throws IOException {
+        GitRepository repo = GitRepository.open(root);
+        // g.txt has no commit yet, dir/sub/e.txt is gone
+        assertEquals(years("a.txt", "2012", "d.txt", "2008", "dir/b.txt", "2010", "dir/c.txt", "2011",
+                "f.txt", "2014"), repo.readYears(HEAD, null, repo.readIndex()));
+    }
+
+    public void testReadYearsOfWholeHistory() throws IOException {
+        assertEquals(years("a.txt", "2012", "d.txt", "2008", "dir/b.txt", "2010", "dir/c.txt", "2011",
+                "dir/sub/e.txt", "2014", "f.txt", "2014"),
+                GitRepository.open(root).readYears(HEAD, null, null));
+    }
+
+    public void testReadYearsSinceCommit() throws IOException {
+        GitRepository repo = GitRepository.open(root);
+        // the merge itself shows no files, the commit of the branch does
+        assertEquals(years("dir/c.txt", "2011", "dir/sub/e.txt", "2014", "f.txt", "2014"),
+                repo.readYears(HEAD, FOURTH, null));
+        assertEquals(years(), repo.readYears(HEAD, HEAD, null));
+    }
+
+    public void testIsAncestor() throws IOException {
+        GitRepository repo = GitRepository.open(root);
+        assertTrue(repo.isAncestor(FOURTH, HEAD));
+        assertTrue(repo.isAncestor(MERGE, HEAD));
+        assertFalse(repo.isAncestor(HEAD, FOURTH));
+        assertFalse(repo.isAncestor("0123456789012345678901234567890123456789", HEAD));
+    }
+
+    public void testCorruptLooseObjectThrows() throws IOException {
+        File commit = new File(root, ".git/objects/" + HEAD.substring(0, 2) + "/" + HEAD.substring(2));
+        commit.setWritable(true);
+        overwrite(commit, 4, new byte[16]);
+        try {
+            GitRepository.open(root).readYears(HEAD, null, null);
+            fail("read a corrupt commit");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testCorruptPacksThrow() throws IOException {
+        File[] packs = new File(root, ".git/objects/pack").listFiles();
+        int corrupted = 0;
+        for (File pack : packs) {
+            if (pack.getName().endsWith(".pack")) {
+                pack.setWritable(true);
+                // past the pack header, into the objects
+                overwrite(pack, 40, new byte[64]);
+                corrupted++;
+            }
+        }
+        assertEquals(2, corrupted);
+        try {
+            GitRepository.open(root).readYears(HEAD, null, null);
+            fail("read corrupt packs");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testApplyDelta() throws IOException {
+        byte[] base = bytes("hello, world");
+        // copy "hello", insert " there", copy ", world"
+        byte[] delta = {12, 18, (byte) 0x91, 0, 5, 6, ' ', 't', 'h', 'e', 'r', 'e', (byte) 0x91, 5, 7};
+        assertEquals("hello there, world", new String(GitRepository.applyDelta(base, delta), "US-ASCII"));
+        // a copy of size 0 is one of 0x10000 bytes
+        byte[] big = new byte[0x10000];
+        byte[] copyAll = {(byte) 0x80, (byte) 0x80, 4, (byte) 0x80, (byte) 0x80, 4, (byte) 0x80};
+        assertTrue(Arrays.equals(big, GitRepository.applyDelta(big, copyAll)));
+    }
+
+    public void testMalformedDeltasThrow() {
+        byte[] base = bytes("hello, world");
+        byte[][] deltas = {
+                // no header
+                {},
+                // header cut short
+                {12, (byte) 0x80},
+                // wrong base size
+                {11, 5, (byte) 0x91, 0, 5},
+                // copy past the end of the base
+                {12, 5, (byte) 0x91, 10, 5},
+                // copy past the end of the result
+                {12, 4, (byte) 0x91, 0, 5},
+                // copy instruction without its operands
+                {12, 5, (byte) 0x91, 0},
+                // insert past the end of the delta
+                {12, 5, 5, 'a', 'b'},
+                // insert past the end of the result
+                {12, 1, 2, 'a', 'b'},
+                // reserved instruction
+                {12, 5, 0},
+                // result shorter than its header says
+                {12, 6, (byte) 0x91, 0, 5},
+                // result size no delta of this length can make
+                {12, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f},
+        };
+        for (int i = 0; i < deltas.length; i++) {
+            try {
+                GitRepository.applyDelta(base, deltas[i]);
+                fail("delta " + i + " was applied");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * A copy of the repository in a new temporary work tree.  Git doesn't keep
+     * a directory named .git in a repository, so the fixture calls it dotgit.
+     */
+    static File copyRepository() throws IOException, URISyntaxException {
+        File root = Files.createTempDirectory("gitrepo").toFile();
+        File fixture = new File(GitRepositoryTest.class.getClassLoader().getResource("gitrepo/dotgit").toURI());
+        copy(fixture, new File(root, ".git"));
+        return root;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        if (from.isDirectory()) {
+            to.mkdirs();
+            for (String name : from.list()) {
+                copy(new File(from, name), new File(to, name));
+            }
+        } else {
+            Files.copy(from.toPath(), to.toPath());
+        }
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void overwrite(File file, long position, byte[] data) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.seek(position);
+            f.write(data);
+        } finally {
+            f.close();
+        }
+    }
+
+    private static Set<String> paths(String... paths) {
+        return new HashSet<String>(Arrays.asList(paths));
+    }
+
+    // path, year, path, year...
+    private static Map<String, String> years(String... pairs) {
+        Map<String, String> years = new HashMap<String, String>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            years.put(pairs[i], pairs[i + 1]);
+        }
+        return years;
+    }
+
+    private static byte[] bytes(String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
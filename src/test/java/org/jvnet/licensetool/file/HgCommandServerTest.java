@@ -0,0 +1,100 @@
+package org.jvnet.licensetool.file;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Runs commands on FakeHgServer processes in place of hg: pooling, failed
+ * commands, servers that die, and shutdown().
+ */
+public class HgCommandServerTest extends TestCase {
+    private final String[] hg = HgCommandServer.command;
+    private File root;
+
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("hgserver").toFile();
+        HgCommandServer.command = fake();
+    }
+
+    protected void tearDown() throws Exception {
+        HgCommandServer.shutdown();
+        HgCommandServer.command = hg;
+        root.delete();
+    }
+
+    public void testServerIsReused() throws IOException {
+        // the warning on the error channel is not part of the output
+        assertEquals("served 1: log --limit 1", HgCommandServer.runCommand(root, "log", "--limit", "1"));
+        assertEquals("served 2: log", HgCommandServer.runCommand(root, "log"));
+    }
+
+    public void testFailedCommandKeepsServer() throws IOException {
+        try {
+            HgCommandServer.runCommand(root, "fail");
+            fail("no CommandFailedException");
+        } catch (HgCommandServer.CommandFailedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("abort: no such thing"));
+        }
+        assertEquals("served 2: log", HgCommandServer.runCommand(root, "log"));
+    }
+
+    public void testDeadServerIsReplaced() throws IOException {
+        try {
+            HgCommandServer.runCommand(root, "crash");
+            fail("a crashed server ran the command");
+        } catch (HgCommandServer.CommandFailedException e) {
+            fail("a crash is not a failed command");
+        } catch (IOException e) {
+            // expected, after a second server crashed too
+        }
+        assertEquals("served 1: log", HgCommandServer.runCommand(root, "log"));
+    }
+
+    public void testServerWithoutRuncommandIsNotUsed() {
+        HgCommandServer.command = fake("old");
+        try {
+            HgCommandServer.runCommand(root, "log");
+            fail("used a server without runcommand");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testShutdownClosesServersAndRetries() throws IOException {
+        assertEquals("served 1: log", HgCommandServer.runCommand(root, "log"));
+        HgCommandServer.shutdown();
+        assertEquals("served 1: log", HgCommandServer.runCommand(root, "log"));
+
+        HgCommandServer.shutdown();
+        HgCommandServer.command = new String[] {new File(root, "no-such-hg").getPath()};
+        try {
+            HgCommandServer.runCommand(root, "log");
+            fail("started a missing command");
+        } catch (IOException e) {
+            // expected
+        }
+        // no server is started for root again in the same scan
+        HgCommandServer.command = fake();
+        try {
+            HgCommandServer.runCommand(root, "log");
+            fail("started a server after one could not be started");
+        } catch (IOException e) {
+            // expected
+        }
+        HgCommandServer.shutdown();
+        assertEquals("served 1: log", HgCommandServer.runCommand(root, "log"));
+    }
+
+    private static String[] fake(String... args) {
+        String[] command = new String[4 + args.length];
+        command[0] = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = FakeHgServer.class.getName();
+        System.arraycopy(args, 0, command, 4, args.length);
+        return command;
+    }
+}
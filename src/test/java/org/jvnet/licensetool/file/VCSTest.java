@@ -0,0 +1,85 @@
+package org.jvnet.licensetool.file;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * Looks up years in a copy of the repository of GitRepositoryTest through
+ * VCS.GIT: the years are saved against HEAD, brought up to date when HEAD moves
+ * on, never saved when the history can't be read, and forgotten by flush().
+ */
+public class VCSTest extends TestCase {
+    private File root;
+    private File saved;
+
+    protected void setUp() throws Exception {
+        root = GitRepositoryTest.copyRepository();
+        saved = new File(root, ".git/licensetool-years");
+    }
+
+    protected void tearDown() throws Exception {
+        VCS.GIT.flush();
+        GitRepositoryTest.delete(root);
+    }
+
+    public void testYearsAreSavedWithHead() {
+        assertEquals("2012", year("a.txt"));
+        assertEquals("2011", year("dir/c.txt"));
+        assertEquals("2014", year("f.txt"));
+        // only in the index
+        assertNull(year("g.txt"));
+        YearCache cache = YearCache.load(saved);
+        assertEquals(GitRepositoryTest.HEAD, cache.getHead());
+        assertEquals("2008", cache.getYears().get("d.txt"));
+    }
+
+    public void testSavedYearsAreUpdated() throws IOException {
+        setBranch(GitRepositoryTest.FOURTH);
+        assertEquals("2010", year("dir/b.txt"));
+        assertEquals("2005", year("dir/c.txt"));
+        assertNull(year("f.txt"));
+        VCS.GIT.flush();
+
+        setBranch(GitRepositoryTest.HEAD);
+        assertEquals("2011", year("dir/c.txt"));
+        assertEquals("2014", year("f.txt"));
+        assertEquals(GitRepositoryTest.HEAD, YearCache.load(saved).getHead());
+    }
+
+    public void testFlushForgetsYears() throws IOException {
+        assertEquals("2014", year("f.txt"));
+        VCS.GIT.flush();
+        // back to before f.txt was added
+        setBranch(GitRepositoryTest.FOURTH);
+        assertNull(year("f.txt"));
+        assertEquals("2005", year("dir/c.txt"));
+    }
+
+    public void testUnreadableHistoryIsNotSaved() throws IOException {
+        String head = GitRepositoryTest.HEAD;
+        File commit = new File(root, ".git/objects/" + head.substring(0, 2) + "/" + head.substring(2));
+        commit.setWritable(true);
+        RandomAccessFile f = new RandomAccessFile(commit, "rw");
+        try {
+            f.seek(4);
+            f.write(new byte[16]);
+        } finally {
+            f.close();
+        }
+        // neither the reader nor git itself can read it
+        assertNull(year("a.txt"));
+        assertFalse(saved.exists());
+    }
+
+    private String year(String path) {
+        return VCS.GIT.getLastModifiedYear(new File(root, path).getPath());
+    }
+
+    private void setBranch(String commit) throws IOException {
+        Files.write(new File(root, ".git/refs/heads/main").toPath(), (commit + "\n").getBytes("US-ASCII"));
+    }
+}
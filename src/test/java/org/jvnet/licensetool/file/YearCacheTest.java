@@ -0,0 +1,61 @@
+package org.jvnet.licensetool.file;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Checks that saved years and their head are read back, and that a damaged
+ * cache is read as an empty one.
+ */
+public class YearCacheTest extends TestCase {
+    private File dir;
+    private File file;
+
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("yearcache").toFile();
+        file = new File(dir, "licensetool-years");
+    }
+
+    protected void tearDown() throws Exception {
+        GitRepositoryTest.delete(dir);
+    }
+
+    public void testSavedYearsAreRead() {
+        YearCache cache = new YearCache(file);
+        cache.setHead("12:abcdef");
+        cache.getYears().put("a.txt", "2005");
+        cache.getYears().put("dir/with space/b\u00e9.txt", "2011");
+        cache.save();
+
+        cache = YearCache.load(file);
+        assertEquals("12:abcdef", cache.getHead());
+        assertEquals(2, cache.getYears().size());
+        assertEquals("2005", cache.getYears().get("a.txt"));
+        assertEquals("2011", cache.getYears().get("dir/with space/b\u00e9.txt"));
+        // nothing is left next to it
+        assertEquals(1, dir.list().length);
+    }
+
+    public void testMissingCacheIsEmpty() {
+        YearCache cache = YearCache.load(file);
+        assertNull(cache.getHead());
+        assertTrue(cache.getYears().isEmpty());
+    }
+
+    public void testDamagedCacheIsEmpty() throws IOException {
+        write("# licensetool years 1\nhead 12:abcdef\n2005\ta.txt\n2011");
+        assertNull(YearCache.load(file).getHead());
+        assertTrue(YearCache.load(file).getYears().isEmpty());
+
+        write("# licensetool years 0\nhead 12:abcdef\n2005\ta.txt\n");
+        assertNull(YearCache.load(file).getHead());
+        assertTrue(YearCache.load(file).getYears().isEmpty());
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes("UTF-8"));
+    }
+}
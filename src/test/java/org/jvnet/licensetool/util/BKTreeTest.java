@@ -0,0 +1,78 @@
+package org.jvnet.licensetool.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks BKTree lookups against computing the distance to every string.
+ */
+public class BKTreeTest extends TestCase {
+
+    public void testEmpty() {
+        BKTree tree = new BKTree(Collections.<String>emptyList());
+        assertEquals(0, tree.size());
+        assertTrue(tree.findWithin("abc", 5).isEmpty());
+        assertTrue(tree.findNearest("abc", 3).isEmpty());
+    }
+
+    public void testDuplicates() {
+        BKTree tree = new BKTree(Arrays.asList("abc", "abd", "abc", "abd"));
+        assertEquals(2, tree.size());
+        assertEquals(2, tree.findWithin("abc", 1).size());
+    }
+
+    public void testAgainstBruteForce() {
+        Random random = new Random(7);
+        // strings in a few clusters, like variants of a handful of headers
+        String[] seeds = new String[5];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = EditDistanceTest.randomString(random, 200, 6);
+        }
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            values.add(EditDistanceTest.mutate(random, seeds[random.nextInt(seeds.length)], random.nextInt(40)));
+        }
+        BKTree tree = new BKTree(values);
+        Set<String> unique = new LinkedHashSet<String>(values);
+        assertEquals(unique.size(), tree.size());
+
+        for (int q = 0; q < 60; q++) {
+            String key = EditDistanceTest.mutate(random, seeds[random.nextInt(seeds.length)], random.nextInt(40));
+            List<Integer> distances = new ArrayList<Integer>();
+            int radius = random.nextInt(30);
+            int within = 0;
+            for (String s : unique) {
+                int d = EditDistanceTest.bruteForce(key, s);
+                distances.add(d);
+                if (d <= radius) {
+                    within++;
+                }
+            }
+            Collections.sort(distances);
+
+            List<BKTree.Match> found = tree.findWithin(key, radius);
+            assertEquals(within, found.size());
+            int last = 0;
+            for (BKTree.Match m : found) {
+                assertEquals(EditDistanceTest.bruteForce(key, m.value), m.distance);
+                assertTrue(m.distance >= last);
+                last = m.distance;
+            }
+
+            int k = 1 + random.nextInt(5);
+            List<BKTree.Match> nearest = tree.findNearest(key, k);
+            assertEquals(k, nearest.size());
+            for (int i = 0; i < k; i++) {
+                assertEquals(distances.get(i).intValue(), nearest.get(i).distance);
+                assertEquals(nearest.get(i).distance, EditDistanceTest.bruteForce(key, nearest.get(i).value));
+            }
+        }
+    }
+}
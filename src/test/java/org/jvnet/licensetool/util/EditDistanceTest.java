@@ -0,0 +1,109 @@
+package org.jvnet.licensetool.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks EditDistance against the classic dynamic programming over the whole matrix.
+ */
+public class EditDistanceTest extends TestCase {
+
+    public void testSmall() {
+        assertEquals(0, EditDistance.editDistance("", ""));
+        assertEquals(3, EditDistance.editDistance("abc", ""));
+        assertEquals(3, EditDistance.editDistance("", "abc"));
+        assertEquals(3, EditDistance.editDistance("kitten", "sitting"));
+        assertEquals(2, EditDistance.editDistance("kitten", "sitting", 1));
+        assertEquals(3, EditDistance.editDistance("kitten", "sitting", 3));
+    }
+
+    public void testAgainstBruteForce() {
+        Random random = new Random(42);
+        for (int round = 0; round < 3000; round++) {
+            // long strings now and then, so the bit-parallel steps span several words
+            int length = random.nextInt(round % 50 == 0 ? 400 : 90);
+            int alphabet = 2 + random.nextInt(6);
+            String a = randomString(random, length, alphabet);
+            String b = random.nextBoolean()
+                    ? mutate(random, a, random.nextInt(15))
+                    : randomString(random, random.nextInt(90), alphabet);
+            int expected = bruteForce(a, b);
+            String name = a + " / " + b;
+            assertEquals(name, expected, EditDistance.editDistance(a, b));
+            assertEquals(name, expected, EditDistance.editDistance(b, a));
+            // a small bound takes the banded path, a large one the bit-parallel one
+            int small = random.nextInt(20);
+            assertEquals(name, Math.min(expected, small + 1), EditDistance.editDistance(a, b, small));
+            int large = 200 + random.nextInt(50);
+            assertEquals(name, Math.min(expected, large + 1), EditDistance.editDistance(a, b, large));
+        }
+    }
+
+    public void testFindNearest() {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            String key = randomString(random, random.nextInt(60), 5);
+            List<String> group = new ArrayList<String>();
+            for (int i = random.nextInt(10); i >= 0; i--) {
+                group.add(mutate(random, key, random.nextInt(20)));
+            }
+            int best = Integer.MAX_VALUE;
+            for (String s : group) {
+                best = Math.min(best, bruteForce(key, s));
+            }
+            assertEquals(best, bruteForce(key, EditDistance.findNearest(key, group)));
+        }
+    }
+
+    static int bruteForce(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int replace = d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                d[i][j] = Math.min(replace, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    /**
+     * Letters from a small alphabet, with a few characters outside of ASCII once
+     * the alphabet is large enough.
+     */
+    static String randomString(Random random, int length, int alphabet) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            int x = random.nextInt(alphabet);
+            sb.append(x == alphabet - 1 && alphabet > 3 ? (char) (0x4e00 + random.nextInt(3)) : (char) ('a' + x));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Applies up to edits random deletions, insertions and replacements.
+     */
+    static String mutate(Random random, String s, int edits) {
+        StringBuilder sb = new StringBuilder(s);
+        for (int i = 0; i < edits; i++) {
+            int op = random.nextInt(3);
+            int pos = sb.length() == 0 ? 0 : random.nextInt(sb.length());
+            if (op == 0 && sb.length() > 0) {
+                sb.deleteCharAt(pos);
+            } else if (op == 1) {
+                sb.insert(pos, (char) ('a' + random.nextInt(4)));
+            } else if (sb.length() > 0) {
+                sb.setCharAt(pos, (char) ('a' + random.nextInt(4)));
+            }
+        }
+        return sb.toString();
+    }
+}
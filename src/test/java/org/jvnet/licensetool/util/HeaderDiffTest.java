@@ -0,0 +1,38 @@
+package org.jvnet.licensetool.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks the word level differences reported for a header.
+ */
+public class HeaderDiffTest extends TestCase {
+    private static final String EXPECTED = "DO NOT ALTER THIS HEADER.\n\nCopyright 1997, 2010, Sun. All rights reserved.\n";
+
+    public void testSame() {
+        assertEquals(0, HeaderDiff.distance(EXPECTED, EXPECTED.replace("\n", "\r\n")));
+        assertEquals(Collections.<String>emptyList(), HeaderDiff.diff(EXPECTED, EXPECTED, 3));
+    }
+
+    public void testLinesOfFound() {
+        String found = "DO NOT CHANGE THIS HEADER.\n\nCopyright 1997-2010 Sun. rights reserved.\n";
+        assertEquals(4, HeaderDiff.distance(EXPECTED, found));
+        assertEquals(Arrays.asList(
+                "header line 1: expected \"ALTER\", found \"CHANGE\"",
+                "header line 3: expected \"1997, 2010,\", found \"1997-2010\"",
+                "header line 3: missing \"All\""), HeaderDiff.diff(EXPECTED, found, 3));
+        assertEquals(Arrays.asList("header line 1: expected \"ALTER\", found \"CHANGE\"", "..."),
+                HeaderDiff.diff(EXPECTED, found, 1));
+    }
+
+    public void testTooFarApart() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= HeaderDiff.MAX_EDITS; i++) {
+            sb.append("word").append(i).append(' ');
+        }
+        assertEquals(-1, HeaderDiff.distance(EXPECTED, sb.toString()));
+        assertNull(HeaderDiff.diff(EXPECTED, sb.toString(), 3));
+    }
+}
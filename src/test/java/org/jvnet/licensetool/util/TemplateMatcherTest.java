@@ -0,0 +1,104 @@
+package org.jvnet.licensetool.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Checks TemplateMatcher against the regular expressions the templates used
+ * to be turned into.
+ */
+public class TemplateMatcherTest extends TestCase {
+
+    public void testYears() {
+        TemplateMatcher m = new TemplateMatcher();
+        m.add("range", "Copyright YYYY Sun\nAll rights reserved.\n");
+        m.add("list", "Copyright (c) YYYY, Oracle\n");
+        assertEquals(0, m.match("Copyright 2003 Sun\nAll rights reserved.\n"));
+        assertEquals(0, m.match("Copyright 2003-2011 Sun\r\nAll rights reserved.\r\n"));
+        assertEquals(-1, m.match("Copyright 203 Sun\nAll rights reserved.\n"));
+        assertEquals(-1, m.match("Copyright 2003, Sun\nAll rights reserved.\n"));
+        assertEquals(1, m.match("Copyright (c) 2003, Oracle\n"));
+        assertEquals(1, m.match("Copyright (c) 2003, 2010, 2011, Oracle\n"));
+        assertEquals(-1, m.match("Copyright (c) 2003 Oracle\n"));
+        assertEquals(-1, m.match("Copyright (c) 2003, Oracle\nmore\n"));
+        assertEquals("list", m.getName(1));
+    }
+
+    public void testFirstTemplateWins() {
+        TemplateMatcher m = new TemplateMatcher();
+        m.add("a", "Copyright YYYY x\n");
+        m.add("b", "Copyright YYYY x\n");
+        assertEquals(0, m.match("Copyright 2011 x\n"));
+    }
+
+    public void testAgainstRegex() {
+        Random random = new Random(1);
+        String[] templateTokens = {"YYYY ", "YYYY, ", "a", "b", " ", ",", "-", "\n", "1", "x"};
+        String[] headerTokens = {"2003 ", "2003-2011 ", "2003, ", "2003, 2004, ", "a", "b", " ", ",", "-", "\n",
+                "1", "x", "20", "2003"};
+        int matched = 0;
+        for (int round = 0; round < 50000; round++) {
+            int count = 1 + random.nextInt(3);
+            TemplateMatcher m = new TemplateMatcher();
+            String[] templates = new String[count];
+            for (int i = 0; i < count; i++) {
+                templates[i] = randomText(random, templateTokens);
+                m.add("t" + i, templates[i]);
+            }
+            String header;
+            if (random.nextBoolean()) {
+                // a header made from a template, sometimes with a character missing
+                header = templates[random.nextInt(count)]
+                        .replace("YYYY, ", random.nextBoolean() ? "2003, " : "2003, 2004, ")
+                        .replace("YYYY ", random.nextBoolean() ? "2003 " : "2003-2011 ");
+                if (random.nextInt(4) == 0 && header.length() > 0) {
+                    int p = random.nextInt(header.length());
+                    header = header.substring(0, p) + header.substring(p + 1);
+                }
+            } else {
+                header = randomText(random, headerTokens);
+            }
+            int expected = -1;
+            for (int i = 0; i < count && expected < 0; i++) {
+                if (ToolUtil.doesCopyrightMatch(toRegex(templates[i]), header)) {
+                    expected = i;
+                }
+            }
+            String name = Arrays.asList(templates) + " [" + header + "]";
+            assertEquals(name, expected, m.match(header));
+            if (expected >= 0) {
+                matched++;
+            }
+        }
+        // the headers must not all miss, or little was tested
+        assertTrue(matched > 10000);
+    }
+
+    private static String randomText(Random random, String[] tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1 + random.nextInt(6); i > 0; i--) {
+            sb.append(tokens[random.nextInt(tokens.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * How LicenseTool turned a template into a regular expression before there
+     * was a TemplateMatcher.
+     */
+    private static String toRegex(String template) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : ToolUtil.splitToLines(Pattern.quote(template))) {
+            if (line.contains("YYYY ")) {
+                line = line.replace("YYYY ", "\\E[0-9]{4}(-[0-9]{4})? \\Q");
+            } else if (line.contains("YYYY, ")) {
+                line = line.replace("YYYY, ", "\\E([0-9]{4}, )+\\Q");
+            }
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+}